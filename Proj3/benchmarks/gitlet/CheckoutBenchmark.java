@@ -0,0 +1,33 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures switching between two branches of a synthetic repository,
+ *  which rewrites every file the branches disagree on. REPO must have at
+ *  least two branches.
+ *  @author Theo Joseph
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CheckoutBenchmark {
+
+    /** Checks out the last branch of REPO and then master again. */
+    @Benchmark
+    public void checkoutAndBack(SyntheticRepo repo) throws IOException {
+        Main.commandParse("checkout", repo.branchName(repo.branches - 1));
+        Main.commandParse("checkout", "master");
+    }
+
+}
@@ -0,0 +1,43 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures committing one changed file on top of a synthetic history.
+ *  Each commit lengthens master by one, so the history grows slowly over
+ *  a run.
+ *  @author Theo Joseph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommitBenchmark {
+
+    /** Changes and stages one file of REPO on master. */
+    @Setup(Level.Invocation)
+    public void change(SyntheticRepo repo) throws IOException {
+        repo.change(repo.nextFile(0));
+    }
+
+    /** Commits the staged change. */
+    @Benchmark
+    public void commit() throws IOException {
+        Main.commandParse("commit", "benchmark");
+    }
+
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compares decoding a commit record with reading back a commit as it
+ *  used to be stored, a Java-serialized object read by ObjectInputStream.
+ *  Both start from the bytes of the record in memory, so only decoding is
+ *  measured; the binary record should be at least ten times faster.
+ *  @author Theo Joseph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommitDecodeBenchmark {
+
+    /** Encodes the same commit both ways. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Commit c = new Commit(MESSAGE, PARENT, null, TREE, TIME);
+        _id = c.getHashed();
+        _record = c.encode();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new SerializedCommit(
+                _id, PARENT, "2017-04-16 13:12:11", MESSAGE, "master"));
+        }
+        _serialized = bytes.toByteArray();
+    }
+
+    /** Decodes the binary commit record. */
+    @Benchmark
+    public Commit decode() {
+        return Commit.decode(_id, _record);
+    }
+
+    /** Deserializes the commit as the old loadCommit did. */
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                 new ByteArrayInputStream(_serialized))) {
+            return in.readObject();
+        }
+    }
+
+    /** The fields of a commit as it used to be serialized. */
+    static class SerializedCommit implements Serializable {
+
+        /** A commit with id HASH, parent PARENT, time TIMESTAMP, message
+         *  MSG, made on branch BRANCHNAME. */
+        SerializedCommit(String hash, String parent, String timestamp,
+                         String msg, String branchName) {
+            _hash = hash;
+            _typable = hash.substring(0, 6);
+            _parent = parent;
+            _timestamp = timestamp;
+            _msg = msg;
+            _branchName = branchName;
+        }
+
+        /** SHA-1 string of the commit. */
+        private String _hash;
+        /** Its first six digits. */
+        private String _typable;
+        /** SHA-1 string of the parent. */
+        private String _parent;
+        /** Formatted time of the commit. */
+        private String _timestamp;
+        /** Commit message. */
+        private String _msg;
+        /** Branch the commit was made on. */
+        private String _branchName;
+
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Message of the decoded commit. */
+    private static final String MESSAGE = "Added the chapter on Eumaeus";
+    /** Id of its parent. */
+    private static final String PARENT =
+        "5e2b5c1c6f7d5b6a3d0e1f2a3b4c5d6e7f8091a2";
+    /** Id of its tree. */
+    private static final String TREE =
+        "0123456789abcdef0123456789abcdef01234567";
+    /** Its time, in seconds since the epoch. */
+    private static final long TIME = 1492348331L;
+
+    /** Id of the decoded commit. */
+    private String _id;
+    /** Its binary record. */
+    private byte[] _record;
+    /** Its old serialized form. */
+    private byte[] _serialized;
+}
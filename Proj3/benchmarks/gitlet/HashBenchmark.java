@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures hashing of contents already in memory and of files on disk.
+ *  @author Theo Joseph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HashBenchmark {
+
+    /** Number of bytes hashed. */
+    @Param({"1024", "1048576"})
+    public int size;
+
+    /** Writes SIZE bytes of contents to memory and to FILE. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _contents = new byte[size];
+        new Random(SEED).nextBytes(_contents);
+        Utils.writeContents(FILE, _contents);
+    }
+
+    /** Removes FILE. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FILE.delete();
+    }
+
+    /** Hashes contents held in memory. */
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(_contents);
+    }
+
+    /** Hashes the contents of a file. */
+    @Benchmark
+    public String toSHA() {
+        return Main.toSHA(FILE);
+    }
+
+    /** The file hashed by toSHA. */
+    private static final File FILE = new File("hash-benchmark.bin");
+    /** Seed for the hashed contents. */
+    private static final long SEED = 61;
+
+    /** The contents hashed by sha1. */
+    private byte[] _contents;
+}
@@ -0,0 +1,36 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures reading the history of a synthetic repository.
+ *  @author Theo Joseph
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HistoryBenchmark {
+
+    /** Prints the log of master in REPO. */
+    @Benchmark
+    public void log(SyntheticRepo repo) throws IOException {
+        Main.commandParse("log");
+    }
+
+    /** Loads the head of the last branch in REPO. */
+    @Benchmark
+    public Branch loadBranch(SyntheticRepo repo) {
+        return Branch.load(repo.branchName(repo.branches - 1));
+    }
+
+}
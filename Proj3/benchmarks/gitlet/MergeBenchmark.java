@@ -0,0 +1,53 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures merging the last branch of a synthetic repository into
+ *  master. Master is reset to its original head before every merge, so
+ *  each invocation does the same work. Invocations within one second
+ *  make the very same merge commit again, which the commit graph and
+ *  indexes record only once. REPO must have at least two branches.
+ *  @author Theo Joseph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    /** Records the head of master in REPO. */
+    @Setup(Level.Trial)
+    public void remember(SyntheticRepo repo) {
+        _head = Branch.load("master").getSHA();
+    }
+
+    /** Moves master back to its original head. */
+    @Setup(Level.Invocation)
+    public void reset() throws IOException {
+        Main.commandParse("reset", _head);
+    }
+
+    /** Merges the last branch of REPO into master. */
+    @Benchmark
+    public void merge(SyntheticRepo repo) throws IOException {
+        Main.commandParse("merge", repo.branchName(repo.branches - 1));
+    }
+
+    /** The original head of master. */
+    private String _head;
+}
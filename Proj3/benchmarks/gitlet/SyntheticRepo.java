@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** A repository built in the working directory before a benchmark runs.
+ *  It has FILES tracked files of FILESIZE bytes each and BRANCHES
+ *  branches, "master" and "branch-1" onward, each DEPTH commits deep.
+ *  Branch B only ever changes files whose number is B modulo BRANCHES, so
+ *  any two branches merge without conflicts. The contents are drawn from
+ *  a fixed seed, so every run benchmarks the same repository.
+ *
+ *  Gitlet works on the current directory, so benchmarks must be started
+ *  from a scratch directory; the benchmarks Makefile arranges that.
+ *  @author Theo Joseph
+ */
+@State(Scope.Benchmark)
+public class SyntheticRepo {
+
+    /** Number of tracked files. */
+    @Param({"100"})
+    public int files;
+    /** Size of each file, in bytes. */
+    @Param({"1024"})
+    public int fileSize;
+    /** Number of commits on each branch. */
+    @Param({"20"})
+    public int depth;
+    /** Number of branches, including master. */
+    @Param({"2"})
+    public int branches;
+
+    /** Builds the repository and silences gitlet's output. */
+    @Setup(Level.Trial)
+    public void build() throws IOException {
+        _stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        clean();
+        _random = new Random(SEED);
+        Main.commandParse("init");
+        for (int i = 0; i < files; i += 1) {
+            change(i);
+        }
+        Main.commandParse("commit", "initial files");
+        for (int b = 1; b < branches; b += 1) {
+            Main.commandParse("branch", branchName(b));
+        }
+        for (int b = branches - 1; b >= 0; b -= 1) {
+            if (b > 0) {
+                Main.commandParse("checkout", branchName(b));
+            } else {
+                Main.commandParse("checkout", "master");
+            }
+            for (int d = 1; d < depth; d += 1) {
+                change(nextFile(b));
+                Main.commandParse("commit", "change " + d + " on " + b);
+            }
+        }
+    }
+
+    /** Removes the repository and restores gitlet's output. */
+    @TearDown(Level.Trial)
+    public void destroy() {
+        clean();
+        System.setOut(_stdout);
+    }
+
+    /** Returns the name of branch number B, where 0 is master. */
+    public String branchName(int b) {
+        return b == 0 ? "master" : "branch-" + b;
+    }
+
+    /** Returns the name of tracked file number I. */
+    public String fileName(int i) {
+        return "file" + i + ".txt";
+    }
+
+    /** Returns the number of a file that branch B may change. */
+    public int nextFile(int b) {
+        int mine = (files - b + branches - 1) / branches;
+        return b + branches * _random.nextInt(Math.max(mine, 1));
+    }
+
+    /** Gives tracked file number I new contents and stages it. */
+    public void change(int i) throws IOException {
+        Utils.writeContents(new File(fileName(i)), contents());
+        Main.commandParse("add", fileName(i));
+    }
+
+    /** Returns FILESIZE bytes of fresh printable text. */
+    public byte[] contents() {
+        byte[] text = new byte[fileSize];
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = (byte) ('a' + _random.nextInt(26));
+        }
+        for (int k = LINE; k < text.length; k += LINE) {
+            text[k] = '\n';
+        }
+        return text;
+    }
+
+    /** Deletes the repository and every tracked file. */
+    private void clean() {
+        delete(new File(".gitlet"));
+        for (int i = 0; i < files; i += 1) {
+            new File(fileName(i)).delete();
+        }
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Seed for all generated contents. */
+    private static final long SEED = 61;
+    /** Length of a generated line of text. */
+    private static final int LINE = 64;
+
+    /** Source of generated contents. */
+    private Random _random;
+    /** Standard output before the repository was built. */
+    private PrintStream _stdout;
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A batch session: "gitlet batch" reads commands from the standard
+ *  input, one per line, and runs each as Main would, in one JVM and
+ *  against one in-memory view of the repository.
+ *
+ *  A line is split into words at blanks; double quotes group words, as
+ *  in commit "a message", and a backslash takes the next character
+ *  literally. Blank lines and lines starting with # are skipped. Each
+ *  command prints what it would print on its own, errors included, and
+ *  a failed command does not end the session.
+ *
+ *  Refs, HEAD and the index are kept in memory for the whole session and
+ *  written once at its end, so that a script of many commands reads them
+ *  once and replaces them once, and, with core.durability batch, forces
+ *  all the objects it wrote in one go. Until then, other processes see
+ *  the repository as it was before the session; objects and commits,
+ *  which nothing names until the refs are written, are stored as usual.
+ *  @author Theo Joseph
+ */
+class Batch {
+
+    /** Performs the batch command ARGS. */
+    static void command(String... args) throws IOException {
+        if (args.length != 1) {
+            throw new GitletException("Incorrect operands.");
+        }
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                                     OUTPUT_BUFFER),
+            false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        Index.defer();
+        Refs.defer();
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                run(line);
+                out.flush();
+            }
+        } finally {
+            System.setOut(stdout);
+            out.flush();
+            flush();
+        }
+    }
+
+    /** Writes the index kept in memory, then the refs, so that the two
+     *  never disagree: if the index cannot be written, because another
+     *  process replaced it during the session, no ref is moved either. */
+    private static void flush() {
+        try {
+            Index.flush();
+        } catch (RuntimeException excp) {
+            Refs.discard();
+            throw excp;
+        }
+        Refs.flush();
+    }
+
+    /** Runs the command on LINE, reporting any error it meets. */
+    private static void run(String line) {
+        if (line.trim().startsWith("#")) {
+            return;
+        }
+        try {
+            String[] args = split(line);
+            if (args.length == 0) {
+                return;
+            }
+            if (args[0].equals("batch") || args[0].equals("daemon")) {
+                throw new GitletException(
+                    "That command cannot be run in a batch.");
+            }
+            Main.commandParse(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException | RuntimeException excp) {
+            System.out.flush();
+            excp.printStackTrace();
+        }
+    }
+
+    /** Returns the words of LINE. */
+    private static String[] split(String line) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                c = line.charAt(i);
+            } else if (c == '"') {
+                quoted = !quoted;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                continue;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            word.append(c);
+        }
+        if (quoted) {
+            throw new GitletException("Unterminated quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /** Size of the buffer holding output not yet written. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+}
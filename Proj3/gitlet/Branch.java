@@ -1,57 +1,48 @@
 package gitlet;
 
-import java.io.Serializable;
 import java.io.IOException;
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.HashMap;
-import java.io.FileNotFoundException;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
-
-/** Keeps track of changes produced by one person.
+import java.util.ArrayList;
+
+/** Keeps track of changes produced by one person. A branch is a name and
+the id of its head commit, as recorded in the ref database.
 @author Andrew Leong & Theo Joseph
 */
 
-public class Branch implements Serializable {
+public class Branch {
 
     /** Creates a new branch with name LABEL. ISCURR says whether the branch
     is the current one in the repo, false by default. */
     Branch(String label, boolean isCurr) {
-        try {
-            _name = label;
-            _iscurr = isCurr;
-            _chain = new LinkedList<String>();
-            commit("initial commit");
-            Files.createDirectory(
-                Paths.get(".", ".gitlet", "untracked", _name));
-            Files.createDirectory(Paths.get(".", ".gitlet", "untold", _name));
-        } catch (IOException excp) {
-            System.out.println("Could not write file.");
-            System.exit(0);
-        }
+        _name = label;
+        _iscurr = isCurr;
+        commit("initial commit");
     }
 
     /** Creates a new branch with new name LABEL and state initialized
     to branch COPYFROM, ISCURR initialized to FALSE. */
     Branch(String label, boolean isCurr, Branch copyFrom) {
-        try {
-            _name = label;
-            _iscurr = isCurr;
-            _chain = copyFrom.getChained();
-            _head = copyFrom._head;
-            Files.createDirectory(
-                Paths.get(".", ".gitlet", "untracked", _name));
-            Files.createDirectory(Paths.get(".", ".gitlet", "untold", _name));
-        } catch (IOException e) {
-            System.out.println("File creation unsuccessful.");
-            System.exit(0);
+        _name = label;
+        _iscurr = isCurr;
+        _head = copyFrom._head;
+    }
+
+    /** A branch named LABEL whose head, as last stored, is HEAD. ISCURR
+    says whether it is the current branch. */
+    private Branch(String label, String head, boolean isCurr) {
+        _name = label;
+        _head = head;
+        _storedHead = head;
+        _iscurr = isCurr;
+        _storedCurr = isCurr;
+    }
+
+    /** Returns the branch named NAME, or null if there is none. */
+    static Branch load(String name) {
+        String head = Refs.read(name);
+        if (head == null) {
+            return null;
         }
+        return new Branch(name, head, name.equals(Refs.current()));
     }
 
     /** Returns whether this branch is the current branch. */
@@ -69,67 +60,56 @@ public class Branch implements Serializable {
         _iscurr = true;
     }
 
-    /** Returns a runtime map between SHA-1 strings and commit objects. */
-    HashMap<String, Commit> load() {
-        HashMap<String, Commit> map = new HashMap<String, Commit>();
-        File branchCommits = new File("./.gitlet/metadata/");
-        File[] treeOfCommitment = branchCommits.listFiles();
-        try {
-            for (File c: treeOfCommitment) {
-                File[] c0 = c.listFiles();
-                ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(c0[0]));
-                Commit commit = (Commit) in.readObject();
-                String sha = commit.getHashed();
-                map.put(sha, commit);
-            }
-        } catch (FileNotFoundException excp) {
-            System.out.println("File not found.");
-            System.exit(0);
-        } catch (ClassNotFoundException ex) {
-            System.exit(0);
-        } catch (IOException e) {
-            System.out.println("Bad input.");
-            System.exit(0);
-        }
-        return map;
-    }
-
     /** Make a new commit with message MSG. */
     void commit(String msg) {
+        commit(msg, null);
+    }
+
+    /** Make a new commit with message MSG that merges in the commit with
+    SHA-1 MERGED, or an ordinary commit if MERGED is null. The commit is
+    added to the commit graph and message index only when stored. */
+    void commit(String msg, String merged) {
         try {
-            Commit c = new Commit(msg, _head, _name);
+            Commit c = new Commit(msg, _head, merged);
             _head = c.getHashed();
-            _chain.add(_head);
-            Path commitsForBranch =
-                Paths.get(".", ".gitlet", "metadata", typableHash());
-            if (!Files.exists(commitsForBranch)) {
-                commitsForBranch = Files.createDirectories(commitsForBranch);
-            }
             c.store();
+            _unpublished.add(c);
         } catch (IOException excp) {
-            System.out.println("Could not read file. Sorry!");
-            System.exit(0);
+            throw new GitletException("Could not read file. Sorry!");
         }
     }
 
-    /** Re-serializes updated branch object. */
+    /** Writes this branch's ref, and HEAD if this branch has become
+    current, but only where they have changed since last stored. Commits
+    made since are added to the commit graph and message index while the
+    ref is locked and known not to have moved, so that a commit that
+    cannot be stored is never seen by global-log or find. Throws
+    GitletException, leaving the ref alone, if another process has moved
+    the branch since it was loaded. */
     void store() {
-        try {
-            File branchFile = new File("./.gitlet/global/" + _name);
-            ObjectOutputStream out =
-                new ObjectOutputStream(new FileOutputStream(branchFile));
-            out.writeObject(this);
-            out.close();
-        } catch (IOException e) {
-            System.out.println("Something went wrong.");
+        if (!_head.equals(_storedHead)) {
+            Refs.update(_name, _storedHead, _head, this::publish);
+            _storedHead = _head;
+        }
+        if (_iscurr && !_storedCurr) {
+            Refs.setCurrent(_name);
+        }
+        _storedCurr = _iscurr;
+    }
+
+    /** Adds the commits made since last stored to the commit graph and
+    message index, in the order they were made. */
+    private void publish() {
+        for (Commit c : _unpublished) {
+            CommitGraph.append(c);
+            MessageIndex.add(c);
         }
+        _unpublished.clear();
     }
 
     /** Returns present commit. */
     Commit getHead() {
-        HashMap<String, Commit> map = load();
-        return map.get(_head);
+        return Main.findCommit(_head);
     }
 
     /** Sets _head to SHA-1 string HEAD. */
@@ -142,16 +122,6 @@ public class Branch implements Serializable {
         return _head;
     }
 
-    /** Returns first 6 characters of _head. */
-    String typableHash() {
-        return _head.substring(0, 6);
-    }
-
-    /** Returns commit tree of SHA-1's. */
-    LinkedList<String> getChained() {
-        return _chain;
-    }
-
     /** Returns the branch's name. */
     String getName() {
         return _name;
@@ -163,6 +133,10 @@ public class Branch implements Serializable {
     private String _head;
     /** Says whether this is the current branch or not. */
     private boolean _iscurr;
-    /** The tree of all previous commits. */
-    private LinkedList<String> _chain;
+    /** Value of _head in the ref database, or null if never stored. */
+    private String _storedHead;
+    /** Value of _iscurr as last stored. */
+    private boolean _storedCurr;
+    /** Commits made on this branch since it was last stored. */
+    private final ArrayList<Commit> _unpublished = new ArrayList<Commit>();
 }
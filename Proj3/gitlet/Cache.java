@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A bounded, least-recently-used cache from ids to repository data that
+ *  never changes once written: commits, trees and blobs. Since an id names
+ *  its contents, cached entries never go stale and need no invalidation,
+ *  so they stay warm for the life of the process. That matters most when
+ *  gitlet runs as a daemon and serves many commands from one JVM.
+ *  @author Theo Joseph
+ */
+class Cache<K, V> {
+
+    /** A cache holding entries of total weight at most BUDGET, where
+     *  WEIGHER gives the weight of each value. */
+    Cache(long budget, ToLongFunction<V> weigher) {
+        _budget = budget;
+        _weigher = weigher;
+        _map = new LinkedHashMap<K, V>(16, 0.75f, true);
+    }
+
+    /** Returns the value cached for KEY, or null if there is none. */
+    synchronized V get(K key) {
+        return _map.get(key);
+    }
+
+    /** Caches VALUE under KEY, evicting the least recently used entries
+     *  as needed to stay within budget. Values heavier than a quarter of
+     *  the budget are not cached. */
+    synchronized void put(K key, V value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _budget / 4) {
+            return;
+        }
+        V old = _map.put(key, value);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+        _weight += weight;
+        Iterator<Map.Entry<K, V>> eldest = _map.entrySet().iterator();
+        while (_weight > _budget && eldest.hasNext()) {
+            _weight -= _weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /** Largest total weight of cached values. */
+    private final long _budget;
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> _weigher;
+    /** Cached values, least recently used first. */
+    private final LinkedHashMap<K, V> _map;
+    /** Total weight of cached values. */
+    private long _weight;
+}
@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Thin front end to gitlet. Forwards its arguments to the Daemon serving
+ *  the repository in the current directory, if there is one, and runs the
+ *  command itself through Main otherwise. A batch, which reads the
+ *  standard input, is always run here.
+ *  @author Theo Joseph
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, where ARGS are as for Main. */
+    public static void main(String... args) throws
+        IOException, ClassNotFoundException {
+        String reply = args.length == 0 || args[0].equals("batch")
+            ? null : forward(args);
+        if (reply == null) {
+            Main.main(args);
+        } else {
+            System.out.print(reply);
+            System.out.flush();
+        }
+    }
+
+    /** Sends ARGS to the daemon and returns the output of the command,
+     *  or null if no daemon is listening. */
+    static String forward(String... args) throws IOException {
+        if (!Daemon.SOCKET.exists()) {
+            return null;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(
+                UnixDomainSocketAddress.of(Daemon.SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+        try (SocketChannel daemon = channel) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(daemon));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(daemon));
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            return new String(output, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -1,119 +1,138 @@
 package gitlet;
 import java.io.File;
-import java.util.HashSet;
-import java.io.Serializable;
-import java.util.Date;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 
 /** A commit represents the state of a group of blobs at a given time.
 At all times there is a notion of a branch of previous commits, or parents.
 Each commit has a message, references to blobs, and a unique SHA-1 string
 and timestamp.
+
+Commits are stored as compact binary records rather than serialized
+objects: a format version, the number of parents, each parent's id as 20
+raw bytes, the tree id as 20 raw bytes, the timestamp in seconds as a
+varint, and the message as a varint length followed by its UTF-8 bytes.
+The commit's own id is the name of the file holding the record.
 @author Andrew Leong & Khalil Joseph
 */
 
-public class Commit implements Serializable {
+public class Commit {
+
+    /** Directory holding all commit records, in fan-out subdirectories. */
+    static final File METADATA = new File("./.gitlet/metadata");
 
-    /** Creates a new commit with message MESSAGE, parent with SHA-1 PARENT,
-    initialized with BRANCH pointing to it. */
-    Commit(String message, String parent, String branch) throws IOException {
+    /** Creates a new commit with message MESSAGE and parent with SHA-1
+    PARENT, recording the files in the index. */
+    Commit(String message, String parent) throws IOException {
+        this(message, parent, null);
+    }
+
+    /** Creates a new commit with message MESSAGE, parent with SHA-1 PARENT
+    and, for a merge, second parent with SHA-1 MERGED (otherwise null),
+    recording the files in the index. */
+    Commit(String message, String parent, String merged) throws IOException {
         _parent = parent;
+        _parent2 = merged;
         _msg = message;
-        _branchName = branch;
-        Date date = new Date();
-        DateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        _timestamp = timestamp.format(new Date());
-        Path commitSub;
-        File allWorld = new File("./.gitlet/stage");
-        File allDels = new File("./.gitlet/untracked/" + _branchName);
-        File[] toCommit = allWorld.listFiles();
-        File[] toDel = allDels.listFiles();
-        if ((toCommit.length == 0)
-            && (parent != null)
-            && (toDel.length == 0)) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
-        } else if (parent == null) {
-            _hash = hash(toCommit);
-            typable = _hash.substring(0, 6);
-            Path sub = Files.createDirectory(
-                Paths.get(".", ".gitlet", "versions", typable));
-            moveFrom(toCommit, "versions/" + typable, true);
-        } else {
-            String shortHash = _parent.substring(0, 6);
-            File previousCommit =
-                new File("./.gitlet/versions/" + shortHash);
-            File[] oldFiles = previousCommit.listFiles();
-            File fi = new File("./.gitlet/versions/temp");
-            _hash = "temp";
-            moveFrom(oldFiles, "versions/temp", false);
-            moveFrom(toCommit, "versions/temp", true);
-            _hash = hash(fi.listFiles());
-            typable = _hash.substring(0, 6);
-            commitSub = Files.createDirectory(
-                Paths.get(".", ".gitlet", "versions", typable));
-            moveFrom(
-                fi.listFiles(), "versions/" + typable, true);
-            File doNotTrack =
-                new File("./.gitlet/untracked/" + _branchName);
-            File[] untracked = doNotTrack.listFiles();
-            for (File u: untracked) {
-                u.delete();
-            }
+        _time = System.currentTimeMillis() / 1000;
+        Index index = Index.load();
+        Tree tree = index.toTree();
+        _tree = tree.store();
+        if (parent != null && merged == null
+            && _tree.equals(Main.findCommit(_parent).getTree())) {
+            throw new GitletException("No changes added to the commit.");
         }
+        _hash = hash();
     }
 
-    /** Move a list SOURCE of files in one directory to directory PATH.
-    If DESTRUCTIVE, destroys the original copy. */
-    public void moveFrom(File[] source, String path,
-                                    boolean destructive) {
-        for (File s: source) {
-            File untracked = new File(
-                "./.gitlet/untracked/" + _branchName + "/" + s.getName());
-            if (!untracked.exists()) {
-                File copy = new File("./.gitlet/" + path + "/" + s.getName());
-                Utils.writeContents(copy, Utils.readContents(s));
-                if (destructive) {
-                    s.delete();
-                }
-            }
-        }
+    /** Creates a commit of the tree with id TREE made at TIME, in seconds
+    since the epoch, with message MESSAGE, parent PARENT and second parent
+    MERGED (either of which may be null). Used to write history without
+    going through the index. */
+    Commit(String message, String parent, String merged, String tree,
+           long time) {
+        _parent = parent;
+        _parent2 = merged;
+        _msg = message;
+        _time = time;
+        _tree = tree;
+        _hash = hash();
     }
 
-    /** Re-serializes this commit. */
+    /** A commit with id HASH, to be filled in by decode. */
+    private Commit(String hash) {
+        _hash = hash;
+    }
+
+    /** Writes this commit's record. */
     void store() {
-        try {
-            File metadata = new File(
-                "./.gitlet/metadata/" + typable + "/" + _hash);
-            ObjectOutputStream out =
-                new ObjectOutputStream(new FileOutputStream(metadata));
-            out.writeObject(this);
-            out.close();
-        } catch (IOException e) {
-            System.out.println("Something went wrong.");
+        LockFile.writeAtomically(FanOut.fileForWrite(METADATA, _hash),
+                                 encode());
+    }
+
+    /** Returns the compact record for this commit. */
+    byte[] encode() {
+        byte[] msg = _msg.getBytes(StandardCharsets.UTF_8);
+        int nparents = _parent == null ? 0 : _parent2 == null ? 1 : 2;
+        byte[] result = new byte[2 + (nparents + 1) * Utils.UID_BYTES
+                                 + 2 * MAX_VARINT + msg.length];
+        int k = 0;
+        result[k++] = FORMAT;
+        result[k++] = (byte) nparents;
+        if (_parent != null) {
+            k = putId(result, k, _parent);
+        }
+        if (_parent2 != null) {
+            k = putId(result, k, _parent2);
         }
+        k = putId(result, k, _tree);
+        k = putVarint(result, k, _time);
+        k = putVarint(result, k, msg.length);
+        System.arraycopy(msg, 0, result, k, msg.length);
+        k += msg.length;
+        byte[] trimmed = new byte[k];
+        System.arraycopy(result, 0, trimmed, 0, k);
+        return trimmed;
     }
 
-    /** Returns the SHA-1 string for a commit containing CONTENTS. */
-    String hash(File[] contents) {
-        ArrayList<Object> concats = new ArrayList<Object>();
-        for (File c: contents) {
-            concats.add(Utils.readContents(c));
+    /** Returns the commit with id HASH whose record is DATA. Throws
+    IllegalArgumentException if DATA is not a valid record. */
+    static Commit decode(String hash, byte[] data) {
+        if (data.length < 2 || data[0] != FORMAT) {
+            throw new IllegalArgumentException("bad commit record");
+        }
+        Commit c = new Commit(hash);
+        int[] pos = new int[] {2};
+        if (data[1] > 0) {
+            c._parent = getId(data, pos);
         }
+        if (data[1] > 1) {
+            c._parent2 = getId(data, pos);
+        }
+        c._tree = getId(data, pos);
+        c._time = getVarint(data, pos);
+        int len = (int) getVarint(data, pos);
+        c._msg = new String(data, pos[0], len, StandardCharsets.UTF_8);
+        return c;
+    }
+
+    /** Returns the SHA-1 string for this commit, which covers its tree
+    manifest rather than the raw contents of every file. */
+    String hash() {
+        ArrayList<Object> concats = new ArrayList<Object>();
+        concats.add(_tree);
         if (_parent != null) {
             concats.add(_parent);
         }
+        if (_parent2 != null) {
+            concats.add(_parent2);
+        }
         concats.add(_msg);
-        concats.add(_timestamp.toString());
+        concats.add(Long.toString(_time));
         return Utils.sha1(concats);
     }
 
@@ -126,9 +145,26 @@ public class Commit implements Serializable {
     String parent() {
         return _parent;
     }
+
+    /** Returns the SHA-1 string of the branch merged in by this commit, or
+    null if it is not a merge. */
+    String parent2() {
+        return _parent2;
+    }
+
+    /** Returns the id of the tree manifest for this commit. */
+    String getTree() {
+        return _tree;
+    }
+
     /** Returns the timestamp for this commit. */
     String getTime() {
-        return _timestamp;
+        return TIME_FORMAT.format(Instant.ofEpochSecond(_time));
+    }
+
+    /** Returns the time of this commit, in seconds since the epoch. */
+    long getSeconds() {
+        return _time;
     }
 
     /** Returns the commit message. */
@@ -136,17 +172,72 @@ public class Commit implements Serializable {
         return _msg;
     }
 
+    /** Writes the 20 bytes of the hex id ID into BUF at K. Returns the
+    position following them. */
+    private static int putId(byte[] buf, int k, String id) {
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            buf[k + i] = (byte) ((Character.digit(id.charAt(2 * i), 16) << 4)
+                                 | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return k + Utils.UID_BYTES;
+    }
+
+    /** Returns the hex id held in DATA at POS[0], advancing POS[0]. */
+    private static String getId(byte[] data, int[] pos) {
+        char[] hex = new char[2 * Utils.UID_BYTES];
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            int b = data[pos[0] + i];
+            hex[2 * i] = Character.forDigit((b >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        pos[0] += Utils.UID_BYTES;
+        return new String(hex);
+    }
+
+    /** Writes the non-negative VALUE into BUF at K as a varint: seven bits
+    per byte, low bits first, high bit set on all but the last byte.
+    Returns the position following it. */
+    private static int putVarint(byte[] buf, int k, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buf[k++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[k++] = (byte) value;
+        return k;
+    }
+
+    /** Returns the varint held in DATA at POS[0], advancing POS[0]. */
+    private static long getVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Version byte starting every commit record. */
+    private static final byte FORMAT = 1;
+    /** Longest possible varint, in bytes. */
+    private static final int MAX_VARINT = 10;
+    /** Format used to print timestamps. */
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+        .withZone(ZoneId.systemDefault());
+
     /** SHA-1 string for this commit. */
     private String _hash;
-    /** First 6 characters of the hash. */
-    private String typable;
+    /** Id of the tree manifest listing the blobs in this commit. */
+    private String _tree;
     /** SHA-1 string of parent of the commit (null if the initial commit). */
     private String _parent;
-    /** Date and time of the commit. */
-    private String _timestamp;
+    /** SHA-1 string of the second parent of a merge, or null. */
+    private String _parent2;
+    /** Time of the commit, in seconds since the epoch. */
+    private long _time;
     /** Commit message. */
     private String _msg;
-    /** Branch this commit belongs to. */
-    private String _branchName;
 }
-
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+/** The commit graph: a file, .gitlet/commit-graph, holding one fixed-size
+ *  record per commit in the order the commits were made. Each record holds
+ *  the commit's id, the positions of its parents, its generation number
+ *  (one more than the largest generation of its parents) and its time.
+ *  The file is memory-mapped, so walking history needs no commit records
+ *  at all, and a commit's generation bounds how far back a search for it
+ *  must go.
+ *  @author Theo Joseph
+ */
+class CommitGraph {
+
+    /** The file holding the graph. */
+    static final File GRAPH = new File("./.gitlet/commit-graph");
+
+    /** Position denoting no commit. */
+    static final int NONE = -1;
+
+    /** A graph over the records mapped in BUF. */
+    private CommitGraph(ByteBuffer buf) {
+        _buf = buf;
+        _size = buf.capacity() < HEADER ? 0 : buf.getInt(COUNT);
+    }
+
+    /** Returns the graph stored in GRAPH, which is empty if there is no
+     *  such file. The graph only ever grows, so the last graph opened is
+     *  reused for as long as the file keeps its length. */
+    static CommitGraph open() {
+        long length = GRAPH.length();
+        if (_open != null && _open._buf.capacity() == length) {
+            return _open;
+        }
+        if (length == 0) {
+            _open = new CommitGraph(ByteBuffer.allocate(0));
+            return _open;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(GRAPH, "r")) {
+            FileChannel channel = file.getChannel();
+            _open = new CommitGraph(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return _open;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends a record for commit C, whose parents must already be in the
+     *  graph, unless C is in it already, as when a commit is made again
+     *  with the same tree, parents, message and time. Appenders hold the
+     *  lock on GRAPH, so that two processes never claim the same
+     *  position. */
+    static void append(Commit c) {
+        LockFile lock = new LockFile(GRAPH);
+        try {
+            appendLocked(c);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Appends a record for commit C, as append does, once the lock is
+     *  held. */
+    private static void appendLocked(Commit c) {
+        CommitGraph graph = open();
+        if (graph.lookup(c.getHashed()) != NONE) {
+            return;
+        }
+        int parent = graph.lookup(c.parent());
+        int parent2 = graph.lookup(c.parent2());
+        int generation = 1;
+        if (parent != NONE) {
+            generation = graph.generation(parent) + 1;
+        }
+        if (parent2 != NONE) {
+            generation = Math.max(generation, graph.generation(parent2) + 1);
+        }
+        int count = graph.size();
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        rec.put(Utils.toBytes(c.getHashed()));
+        rec.putInt(parent).putInt(parent2).putInt(generation);
+        rec.putLong(c.getSeconds());
+        rec.flip();
+        try (RandomAccessFile file = new RandomAccessFile(GRAPH, "rw")) {
+            FileChannel channel = file.getChannel();
+            if (count == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+                header.flip();
+                channel.write(header, 0);
+            }
+            channel.write(rec, offset(count));
+            ByteBuffer newCount = ByteBuffer.allocate(4);
+            newCount.putInt(count + 1).flip();
+            channel.write(newCount, COUNT);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(GRAPH);
+        IdIndex.add(c.getHashed(), count);
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns the position of the commit with full id ID, or NONE if it
+     *  is absent from this graph or ID is null. */
+    int lookup(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        int pos = IdIndex.position(id);
+        return pos < _size ? pos : NONE;
+    }
+
+    /** Returns the id of the commit at POS. */
+    String id(int pos) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        int off = offset(pos);
+        for (int i = 0; i < id.length; i += 1) {
+            id[i] = _buf.get(off + i);
+        }
+        return Utils.toHex(id);
+    }
+
+    /** Returns the position of parent K (0 or 1) of the commit at POS, or
+     *  NONE if it has no such parent. */
+    int parent(int pos, int k) {
+        return _buf.getInt(offset(pos) + Utils.UID_BYTES + 4 * k);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    int generation(int pos) {
+        return _buf.getInt(offset(pos) + Utils.UID_BYTES + 8);
+    }
+
+    /** Returns the time of the commit at POS, in seconds since the
+     *  epoch. */
+    long time(int pos) {
+        return _buf.getLong(offset(pos) + Utils.UID_BYTES + 12);
+    }
+
+    /** Returns true iff the commit at ANCESTOR is the commit at POS or one
+     *  of its ancestors. Commits with generations below ANCESTOR's cannot
+     *  lead to it and are never visited. */
+    boolean isAncestor(int ancestor, int pos) {
+        int floor = generation(ancestor);
+        BitSet seen = new BitSet(_size);
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        work.push(pos);
+        seen.set(pos);
+        while (!work.isEmpty()) {
+            int p = work.pop();
+            if (p == ancestor) {
+                return true;
+            }
+            for (int k = 0; k < 2; k += 1) {
+                int q = parent(p, k);
+                if (q != NONE && !seen.get(q) && generation(q) >= floor) {
+                    seen.set(q);
+                    work.push(q);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the position of a lowest common ancestor of the commits at
+     *  A and B, or NONE if they have none. Both histories are searched at
+     *  once, always expanding the commit with the highest generation, and
+     *  each commit is marked with the sides it is reachable from. Every
+     *  descendant of a commit has a higher generation, so the first commit
+     *  found reachable from both sides has no common ancestor below it;
+     *  the search stops there, having touched only the commits between
+     *  the two heads and the split point. */
+    int mergeBase(int a, int b) {
+        byte[] sides = new byte[_size];
+        PriorityQueue<Integer> work = new PriorityQueue<Integer>(
+            (p, q) -> Integer.compare(generation(q), generation(p)));
+        sides[a] |= FROM_A;
+        sides[b] |= FROM_B;
+        work.add(a);
+        if (b != a) {
+            work.add(b);
+        }
+        while (!work.isEmpty()) {
+            int p = work.poll();
+            if (sides[p] == BOTH) {
+                return p;
+            }
+            for (int k = 0; k < 2; k += 1) {
+                int q = parent(p, k);
+                if (q != NONE && (sides[q] | sides[p]) != sides[q]) {
+                    if (sides[q] == 0) {
+                        work.add(q);
+                    }
+                    sides[q] |= sides[p];
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the byte offset of the record at POS. */
+    private static int offset(int pos) {
+        return HEADER + pos * RECORD;
+    }
+
+    /** Marks commits reachable from the first head in mergeBase. */
+    private static final byte FROM_A = 1;
+    /** Marks commits reachable from the second head in mergeBase. */
+    private static final byte FROM_B = 2;
+    /** Marks commits reachable from both heads in mergeBase. */
+    private static final byte BOTH = FROM_A | FROM_B;
+
+    /** Marks the start of a graph file ("CGPH"). */
+    private static final int MAGIC = 0x43475048;
+    /** Version of the graph file format. */
+    private static final int VERSION = 1;
+    /** Size of the file header: magic, version, count, and a reserved
+     *  word. */
+    private static final int HEADER = 16;
+    /** Offset of the commit count in the header. */
+    private static final int COUNT = 8;
+    /** Size of a record: id, two parent positions, generation, time. */
+    private static final int RECORD = Utils.UID_BYTES + 4 + 4 + 4 + 8;
+
+    /** The graph last returned by open(), or null. */
+    private static CommitGraph _open;
+
+    /** The mapped graph file. */
+    private ByteBuffer _buf;
+    /** Number of records in _buf. */
+    private int _size;
+}
@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/** Repository settings, kept as NAME=VALUE lines in .gitlet/config and
+ *  changed with the config command. Every setting has a default, so a
+ *  repository without the file behaves as one with all defaults.
+ *  Settings are reread whenever the file changes.
+ *  @author Theo Joseph
+ */
+class Config {
+
+    /** The file holding the settings. */
+    static final File CONFIG = new File("./.gitlet/config");
+
+    /** How checkout materializes files: "copy" writes each file, while
+     *  "link" hard-links the working file to its loose object and makes
+     *  both read-only. */
+    static final String CHECKOUT_MODE = "checkout.mode";
+
+    /** Whether the daemon runs a file system monitor, letting status,
+     *  checkout and merge skip working files that have not changed:
+     *  "false" or "true". Takes effect when the daemon is next started. */
+    static final String FSMONITOR = "core.fsmonitor";
+
+    /** When repository files are forced to disk: "batch", "none" or
+     *  "full". See Durability. */
+    static final String DURABILITY = "core.durability";
+
+    /** Performs the config command ARGS: "config NAME" prints the value
+     *  of NAME and "config NAME VALUE" sets it. */
+    static void command(String... args) {
+        Main.isInitialized();
+        if (args.length < 2 || args.length > 3) {
+            throw new GitletException("Incorrect operands.");
+        }
+        String name = args[1];
+        if (!CHOICES.containsKey(name)) {
+            throw new GitletException("No setting with that name exists.");
+        }
+        if (args.length == 2) {
+            System.out.println(get(name));
+            return;
+        }
+        if (!CHOICES.get(name).contains(args[2])) {
+            throw new GitletException(
+                "Value must be one of " + CHOICES.get(name) + ".");
+        }
+        set(name, args[2]);
+    }
+
+    /** Returns the value of setting NAME. */
+    static String get(String name) {
+        return load().getProperty(name, CHOICES.get(name).get(0));
+    }
+
+    /** Sets NAME to VALUE, replacing CONFIG through its lock file. */
+    static void set(String name, String value) {
+        try (LockFile lock = new LockFile(CONFIG)) {
+            Properties settings = new Properties();
+            settings.putAll(load());
+            settings.setProperty(name, value);
+            try (Writer out = new FileWriter(lock.file())) {
+                settings.store(out, null);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            lock.commit();
+        }
+        _settings = null;
+    }
+
+    /** Returns the settings in CONFIG, reading them only if the file has
+     *  changed since they were last read. */
+    private static Properties load() {
+        long stamp = CONFIG.lastModified() ^ CONFIG.length();
+        if (_settings == null || stamp != _stamp) {
+            Properties settings = new Properties();
+            if (CONFIG.isFile()) {
+                try (Reader in = new FileReader(CONFIG)) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            _settings = settings;
+            _stamp = stamp;
+        }
+        return _settings;
+    }
+
+    /** Maps each setting to its allowed values, the default first. */
+    private static final HashMap<String, List<String>> CHOICES =
+        new HashMap<String, List<String>>();
+
+    static {
+        CHOICES.put(CHECKOUT_MODE, Arrays.asList("copy", "link"));
+        CHOICES.put(FSMONITOR, Arrays.asList("false", "true"));
+        CHOICES.put(DURABILITY, Arrays.asList(Durability.BATCH,
+                                              Durability.NONE,
+                                              Durability.FULL));
+    }
+
+    /** The settings last read, or null. */
+    private static Properties _settings;
+    /** Modification time and length of CONFIG when last read. */
+    private static long _stamp;
+}
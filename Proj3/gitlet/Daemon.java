@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A long-lived gitlet server for one repository. Started with
+ *  "gitlet daemon", it listens on the Unix domain socket SOCKET and runs
+ *  each command forwarded by a Client in the daemon's one JVM, rather
+ *  than in a JVM started for the command, so that scripts issuing many
+ *  commands pay for JVM startup only once and keep the commit, tree and
+ *  blob caches warm between commands.
+ *
+ *  Nothing about the repository is kept across commands except data that
+ *  can be checked cheaply against the disk: refs and the index are read
+ *  afresh each time, objects and commits are immutable, the commit graph
+ *  is reopened when its length changes, and packs are looked for again
+ *  when the listing of the pack directory changes. If core.fsmonitor is
+ *  set, the daemon also hosts the FsMonitor watcher. Commands are served
+ *  one at a time, and an exclusive lock on LOCK keeps a second daemon
+ *  off the same repository.
+ *
+ *  A request is an int count followed by that many UTF strings; the
+ *  reply is an int length followed by that many bytes of UTF-8 output.
+ *  @author Theo Joseph
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = new File("./.gitlet/daemon.sock");
+    /** Held locked by the running daemon. */
+    static final File LOCK = new File("./.gitlet/daemon.lock");
+
+    /** Performs the daemon command ARGS: "daemon" serves this repository
+     *  until stopped and "daemon stop" stops the daemon serving it. */
+    static void command(String... args) throws IOException {
+        Main.isInitialized();
+        if (args.length == 1) {
+            serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (Client.forward(args) == null) {
+                throw new GitletException("No daemon is running.");
+            }
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /** Returns true iff ARGS asks the daemon to stop. */
+    static boolean isStop(String... args) {
+        return args.length == 2 && args[0].equals("daemon")
+            && args[1].equals("stop");
+    }
+
+    /** Serves commands on SOCKET until asked to stop. */
+    private static void serve() throws IOException {
+        try (RandomAccessFile lockFile = new RandomAccessFile(LOCK, "rw");
+             FileLock lock = lockFile.getChannel().tryLock()) {
+            if (lock == null) {
+                throw new GitletException(
+                    "A daemon is already running for this repository.");
+            }
+            SOCKET.delete();
+            FsMonitor.stop();
+            if (Config.get(Config.FSMONITOR).equals("true")) {
+                FsMonitor.start();
+            }
+            try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+                boolean running = true;
+                while (running) {
+                    try (SocketChannel client = server.accept()) {
+                        running = handle(client);
+                    }
+                }
+            } finally {
+                FsMonitor.stop();
+                SOCKET.delete();
+            }
+        }
+    }
+
+    /** Runs the command read from CLIENT and sends back its output.
+     *  Returns false iff the command asked the daemon to stop. */
+    private static boolean handle(SocketChannel client) {
+        String[] args;
+        try {
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(client));
+            args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+        } catch (IOException excp) {
+            return true;
+        }
+        boolean stop = isStop(args);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!stop) {
+            run(args, output);
+        }
+        try {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(client));
+            out.writeInt(output.size());
+            output.writeTo(out);
+            out.flush();
+        } catch (IOException excp) {
+            /* The client went away; nobody is left to tell. */
+        }
+        return !stop;
+    }
+
+    /** Runs the command ARGS as Main would, sending everything it prints
+     *  to OUTPUT. */
+    private static void run(String[] args, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out, stderr = System.err;
+        PrintStream capture =
+            new PrintStream(output, true, StandardCharsets.UTF_8);
+        System.setOut(capture);
+        System.setErr(capture);
+        try {
+            if (args.length == 0) {
+                System.out.println("Please enter a command.");
+            } else if (args[0].equals("daemon")) {
+                System.out.println("A daemon is already running.");
+            } else {
+                Main.commandParse(args);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace();
+        } finally {
+            capture.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+}
@@ -0,0 +1,568 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/** Line-by-line differences between versions of files, and the diff
+ *  command that prints them.
+ *
+ *  Each line is first replaced by a small integer, equal lines by equal
+ *  integers, so that the comparison proper never looks at text again.
+ *  Differences are then found with the linear-space form of Myers'
+ *  O(ND) algorithm: the middle snake of the edit graph is found by
+ *  searching forward and backward at once, and the halves on either side
+ *  of it are compared in turn. Common leading and trailing lines are
+ *  stripped at every step. Output is written straight to a stream, hunk
+ *  by hunk, from the original bytes.
+ *
+ *  Files whose blob ids are equal are known to be identical and are never
+ *  read; working files the index vouches for stand for their staged
+ *  blobs without being read either.
+ *  @author Theo Joseph
+ */
+class Diff {
+
+    /** A change: lines [aStart, aEnd) of the old text are replaced by
+     *  lines [bStart, bEnd) of the new one. */
+    static class Edit {
+
+        /** The change of lines [ASTART, AEND) of the old text into lines
+         *  [BSTART, BEND) of the new. */
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+
+        /** Bounds of the replaced lines of the old text. */
+        final int aStart, aEnd;
+        /** Bounds of the replacing lines of the new text. */
+        final int bStart, bEnd;
+    }
+
+    /** The result of a three-way merge of the lines of a file. */
+    static class Merged {
+
+        /** A merge producing CONTENTS, which hold conflict markers iff
+         *  CONFLICTED. */
+        Merged(byte[] contents, boolean conflicted) {
+            this.contents = contents;
+            this.conflicted = conflicted;
+        }
+
+        /** The merged text. */
+        final byte[] contents;
+        /** True iff some changes were set off by conflict markers. */
+        final boolean conflicted;
+    }
+
+    /** Performs the diff command ARGS. "diff" compares the index with
+     *  the working files, "diff --staged" the head commit with the index,
+     *  "diff COMMIT" that commit with the working files and "diff COMMIT1
+     *  COMMIT2" the two commits. */
+    static void command(String... args) {
+        Main.isInitialized();
+        if (args.length > 3) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Index index = Index.load();
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER);
+        if (args.length == 1) {
+            workingTree(index.toTree(), index, out);
+        } else if (args[1].equals("--staged")
+                   || args[1].equals("--cached")) {
+            if (args.length != 2) {
+                throw new GitletException("Incorrect operands.");
+            }
+            Repo repo = new Repo("");
+            trees(Main.treeOf(repo.getCurrent().getSHA()), index.toTree(),
+                  out);
+        } else if (args.length == 2) {
+            workingTree(treeOf(args[1]), index, out);
+        } else {
+            trees(treeOf(args[1]), treeOf(args[2]), out);
+        }
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the tree of the commit whose id begins with ID. */
+    private static Tree treeOf(String id) {
+        if (Main.findCommit(id) == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return Main.treeOf(id);
+    }
+
+    /** Writes to OUT the differences between the files of OLDER and
+     *  those of NEWER. */
+    static void trees(Tree older, Tree newer, OutputStream out) {
+        TreeSet<String> names = new TreeSet<String>(older.names());
+        names.addAll(newer.names());
+        for (String name : names) {
+            String a = older.get(name), b = newer.get(name);
+            if (!Objects.equals(a, b)) {
+                file(name, a == null ? null : ObjectStore.read(a),
+                     b == null ? null : ObjectStore.read(b), out);
+            }
+        }
+    }
+
+    /** Writes to OUT the differences between the files of OLDER and the
+     *  working files tracked by INDEX. A working file is read only if
+     *  the index cannot vouch for it from its stat data, and only shown
+     *  if its contents differ from its version in OLDER. */
+    static void workingTree(Tree older, Index index, OutputStream out) {
+        TreeSet<String> names = new TreeSet<String>(older.names());
+        names.addAll(index.paths());
+        for (String name : names) {
+            String a = older.get(name);
+            File file = new File(name);
+            byte[] contents = null;
+            String b = null;
+            if (!index.contains(name) || !file.isFile()) {
+                b = null;
+            } else if (index.isUnchanged(name)) {
+                b = index.get(name);
+            } else {
+                contents = Utils.readContents(file);
+                b = Utils.sha1(contents);
+            }
+            if (Objects.equals(a, b)) {
+                continue;
+            }
+            if (contents == null && b != null) {
+                contents = ObjectStore.read(b);
+            }
+            file(name, a == null ? null : ObjectStore.read(a), contents,
+                 out);
+        }
+    }
+
+    /** Writes to OUT the differences between versions A and B of the
+     *  file NAME as a unified diff, where a null version is an absent
+     *  file. */
+    static void file(String name, byte[] a, byte[] b, OutputStream out) {
+        try {
+            write(out, "diff a/" + name + " b/" + name + "\n");
+            if (isBinary(a) || isBinary(b)) {
+                write(out, "Binary files " + (a == null ? "/dev/null"
+                                              : "a/" + name)
+                      + " and " + (b == null ? "/dev/null" : "b/" + name)
+                      + " differ\n");
+                return;
+            }
+            write(out, "--- " + (a == null ? "/dev/null" : "a/" + name)
+                  + "\n");
+            write(out, "+++ " + (b == null ? "/dev/null" : "b/" + name)
+                  + "\n");
+            Lines old = new Lines(a), now = new Lines(b);
+            List<Edit> edits = edits(old, now);
+            for (int i = 0; i < edits.size(); ) {
+                int j = i + 1;
+                while (j < edits.size() && edits.get(j).aStart
+                       - edits.get(j - 1).aEnd <= 2 * CONTEXT) {
+                    j += 1;
+                }
+                hunk(old, now, edits.subList(i, j), out);
+                i = j;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the result of merging the changes made to BASE in OURS
+     *  with those made to it in THEIRS, line by line. A change made on
+     *  one side only is taken as is, and one made alike on both sides is
+     *  taken once. Changes on the two sides that overlap or touch are set
+     *  off by conflict markers: "<<<<<<< HEAD", our lines, "=======",
+     *  their lines, ">>>>>>>". A null version is an empty file. */
+    static Merged conflict(byte[] base, byte[] ours, byte[] theirs) {
+        Lines o = new Lines(base), a = new Lines(ours), b = new Lines(theirs);
+        List<Edit> ea = edits(o, a), eb = edits(o, b);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflicted = false;
+        int pos = 0, i = 0, j = 0;
+        while (i < ea.size() || j < eb.size()) {
+            int start = Math.min(
+                i < ea.size() ? ea.get(i).aStart : Integer.MAX_VALUE,
+                j < eb.size() ? eb.get(j).aStart : Integer.MAX_VALUE);
+            int end = start, i0 = i, j0 = j;
+            while (true) {
+                if (i < ea.size() && ea.get(i).aStart <= end) {
+                    end = Math.max(end, ea.get(i).aEnd);
+                    i += 1;
+                } else if (j < eb.size() && eb.get(j).aStart <= end) {
+                    end = Math.max(end, eb.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            o.copy(pos, start, out);
+            int[] ourLines = side(ea.subList(i0, i), start, end);
+            int[] theirLines = side(eb.subList(j0, j), start, end);
+            if (j == j0 || (i > i0 && a.same(ourLines[0], ourLines[1], b,
+                                             theirLines[0], theirLines[1]))) {
+                a.copy(ourLines[0], ourLines[1], out);
+            } else if (i == i0) {
+                b.copy(theirLines[0], theirLines[1], out);
+            } else {
+                conflicted = true;
+                out.writeBytes(OURS);
+                a.copy(ourLines[0], ourLines[1], out);
+                terminate(a, ourLines[0], ourLines[1], out);
+                out.writeBytes(SEPARATOR);
+                b.copy(theirLines[0], theirLines[1], out);
+                terminate(b, theirLines[0], theirLines[1], out);
+                out.writeBytes(THEIRS);
+            }
+            pos = end;
+        }
+        o.copy(pos, o.size(), out);
+        return new Merged(out.toByteArray(), conflicted);
+    }
+
+    /** Returns the bounds {start, end} of the lines of one side that
+     *  replace lines [START, END) of the base, where EDITS are that
+     *  side's changes within those lines. */
+    private static int[] side(List<Edit> edits, int start, int end) {
+        if (edits.isEmpty()) {
+            return new int[] {start, end};
+        }
+        Edit first = edits.get(0), last = edits.get(edits.size() - 1);
+        return new int[] {first.bStart - (first.aStart - start),
+                          last.bEnd + (end - last.aEnd)};
+    }
+
+    /** Returns the changes that turn text A into text B, in order. */
+    static List<Edit> edits(byte[] a, byte[] b) {
+        return edits(new Lines(a), new Lines(b));
+    }
+
+    /** Returns the changes that turn the lines of A into those of B. */
+    private static List<Edit> edits(Lines a, Lines b) {
+        HashMap<Line, Integer> ids = new HashMap<Line, Integer>();
+        int[] x = a.ids(ids), y = b.ids(ids);
+        ArrayList<Edit> edits = new ArrayList<Edit>();
+        compare(x, 0, x.length, y, 0, y.length, edits);
+        return edits;
+    }
+
+    /** Appends to EDITS the changes that turn X[XLO..XHI) into
+     *  Y[YLO..YHI), joining the first to the last one already there if
+     *  they touch. */
+    private static void compare(int[] x, int xlo, int xhi,
+                                int[] y, int ylo, int yhi,
+                                List<Edit> edits) {
+        while (xlo < xhi && ylo < yhi && x[xlo] == y[ylo]) {
+            xlo += 1;
+            ylo += 1;
+        }
+        while (xlo < xhi && ylo < yhi && x[xhi - 1] == y[yhi - 1]) {
+            xhi -= 1;
+            yhi -= 1;
+        }
+        if (xlo == xhi && ylo == yhi) {
+            return;
+        }
+        int[] mid = xlo == xhi || ylo == yhi ? null
+            : middle(x, xlo, xhi, y, ylo, yhi);
+        if (mid == null) {
+            int last = edits.size() - 1;
+            if (last >= 0 && edits.get(last).aEnd == xlo
+                && edits.get(last).bEnd == ylo) {
+                Edit prev = edits.remove(last);
+                xlo = prev.aStart;
+                ylo = prev.bStart;
+            }
+            edits.add(new Edit(xlo, xhi, ylo, yhi));
+        } else {
+            compare(x, xlo, mid[0], y, ylo, mid[1], edits);
+            compare(x, mid[0], xhi, y, mid[1], yhi, edits);
+        }
+    }
+
+    /** Returns a point {i, j} on a shortest path through the edit graph
+     *  of X[XLO..XHI) and Y[YLO..YHI), both non-empty and differing in
+     *  their first and last lines, that splits it roughly in half, or
+     *  null if the two have no line in common. */
+    private static int[] middle(int[] x, int xlo, int xhi,
+                                int[] y, int ylo, int yhi) {
+        int n = xhi - xlo, m = yhi - ylo;
+        int max = (n + m + 1) / 2, off = max + 1;
+        int[] fwd = new int[2 * max + 3], bwd = new int[2 * max + 3];
+        Arrays.fill(fwd, -1);
+        Arrays.fill(bwd, -1);
+        fwd[off + 1] = 0;
+        bwd[off + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int fLo = 0, fHi = 0, bLo = 0, bHi = 0;
+        for (int d = 0; d < max; d += 1) {
+            for (int k = -d + fLo; k <= d - fHi; k += 2) {
+                int i = k == -d || (k != d && fwd[off + k - 1]
+                                    < fwd[off + k + 1])
+                    ? fwd[off + k + 1] : fwd[off + k - 1] + 1;
+                int j = i - k;
+                while (i < n && j < m && x[xlo + i] == y[ylo + j]) {
+                    i += 1;
+                    j += 1;
+                }
+                fwd[off + k] = i;
+                if (i > n) {
+                    fHi += 2;
+                } else if (j > m) {
+                    fLo += 2;
+                } else if (odd) {
+                    int c = off + delta - k;
+                    if (c >= 0 && c < bwd.length && bwd[c] != -1
+                        && bwd[c] <= n && i >= n - bwd[c]) {
+                        return new int[] {xlo + i, ylo + j};
+                    }
+                }
+            }
+            for (int k = -d + bLo; k <= d - bHi; k += 2) {
+                int i = k == -d || (k != d && bwd[off + k - 1]
+                                    < bwd[off + k + 1])
+                    ? bwd[off + k + 1] : bwd[off + k - 1] + 1;
+                int j = i - k;
+                while (i < n && j < m
+                       && x[xhi - 1 - i] == y[yhi - 1 - j]) {
+                    i += 1;
+                    j += 1;
+                }
+                bwd[off + k] = i;
+                if (i > n) {
+                    bHi += 2;
+                } else if (j > m) {
+                    bLo += 2;
+                } else if (!odd) {
+                    int c = off + delta - k;
+                    if (c >= 0 && c < fwd.length && fwd[c] != -1) {
+                        int fi = fwd[c], fj = fi - (c - off);
+                        if (fi <= n && fj <= m && fi >= n - i) {
+                            return new int[] {xlo + fi, ylo + fj};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Writes to OUT the hunk of lines OLD and NOW showing EDITS, which
+     *  lie close together, with CONTEXT lines on either side. */
+    private static void hunk(Lines old, Lines now, List<Edit> edits,
+                             OutputStream out) throws IOException {
+        Edit first = edits.get(0), last = edits.get(edits.size() - 1);
+        int lead = Math.min(CONTEXT, first.aStart);
+        int trail = Math.min(CONTEXT, old.size() - last.aEnd);
+        int aStart = first.aStart - lead, aEnd = last.aEnd + trail;
+        int bStart = first.bStart - lead, bEnd = last.bEnd + trail;
+        write(out, "@@ -" + range(aStart, aEnd) + " +"
+              + range(bStart, bEnd) + " @@\n");
+        int ai = aStart;
+        for (Edit e : edits) {
+            old.write(' ', ai, e.aStart, out);
+            old.write('-', e.aStart, e.aEnd, out);
+            now.write('+', e.bStart, e.bEnd, out);
+            ai = e.aEnd;
+        }
+        old.write(' ', ai, aEnd, out);
+    }
+
+    /** Returns the range of lines [START, END) as shown in a hunk
+     *  header. */
+    private static String range(int start, int end) {
+        int len = end - start;
+        if (len == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (len == 0 ? start : start + 1) + "," + len;
+    }
+
+    /** Writes a newline to OUT if lines [START, END) of TEXT are not
+     *  empty and do not end with one. */
+    private static void terminate(Lines text, int start, int end,
+                                  ByteArrayOutputStream out) {
+        if (start < end && !text.endsWithNewline(end - 1)) {
+            out.write('\n');
+        }
+    }
+
+    /** Returns true iff CONTENTS looks like binary data: a NUL byte
+     *  within its first BINARY_PROBE bytes. */
+    private static boolean isBinary(byte[] contents) {
+        if (contents == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE);
+             i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes TEXT to OUT. */
+    private static void write(OutputStream out, String text)
+        throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** The lines of a text, each including its newline, if any. */
+    private static class Lines {
+
+        /** The lines of TEXT, where null is an empty text. */
+        Lines(byte[] text) {
+            _text = text == null ? new byte[0] : text;
+            int count = 0;
+            for (byte c : _text) {
+                if (c == '\n') {
+                    count += 1;
+                }
+            }
+            if (_text.length > 0 && _text[_text.length - 1] != '\n') {
+                count += 1;
+            }
+            _starts = new int[count + 1];
+            int k = 1;
+            for (int i = 0; i < _text.length; i += 1) {
+                if (_text[i] == '\n' && k < count) {
+                    _starts[k] = i + 1;
+                    k += 1;
+                }
+            }
+            _starts[count] = _text.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return _starts.length - 1;
+        }
+
+        /** Returns the integer standing for each line, drawn from IDS,
+         *  which maps each distinct line seen so far to its integer. */
+        int[] ids(HashMap<Line, Integer> ids) {
+            int[] result = new int[size()];
+            for (int i = 0; i < result.length; i += 1) {
+                Line line = new Line(_text, _starts[i], _starts[i + 1]);
+                Integer id = ids.putIfAbsent(line, ids.size());
+                result[i] = id == null ? ids.size() - 1 : id;
+            }
+            return result;
+        }
+
+        /** Returns true iff line I ends with a newline. */
+        boolean endsWithNewline(int i) {
+            return _text[_starts[i + 1] - 1] == '\n';
+        }
+
+        /** Returns true iff lines [START, END) are the same as lines
+         *  [OSTART, OEND) of OTHER. */
+        boolean same(int start, int end, Lines other, int oStart,
+                       int oEnd) {
+            return Arrays.equals(_text, _starts[start], _starts[end],
+                                 other._text, other._starts[oStart],
+                                 other._starts[oEnd]);
+        }
+
+        /** Copies lines [START, END) to OUT. */
+        void copy(int start, int end, ByteArrayOutputStream out) {
+            out.write(_text, _starts[start], _starts[end] - _starts[start]);
+        }
+
+        /** Writes lines [START, END) to OUT, each preceded by PREFIX. A
+         *  last line without a newline is marked as such. */
+        void write(char prefix, int start, int end, OutputStream out)
+            throws IOException {
+            for (int i = start; i < end; i += 1) {
+                out.write(prefix);
+                out.write(_text, _starts[i], _starts[i + 1] - _starts[i]);
+                if (!endsWithNewline(i)) {
+                    out.write(NO_NEWLINE);
+                }
+            }
+        }
+
+        /** The whole text. */
+        private final byte[] _text;
+        /** The offset of each line in _text, then _text's length. */
+        private final int[] _starts;
+    }
+
+    /** A line of a text, as a key for finding equal lines. */
+    private static class Line {
+
+        /** The line TEXT[START..END). */
+        Line(byte[] text, int start, int end) {
+            _text = text;
+            _start = start;
+            _end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + text[i];
+            }
+            _hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            return _hash == other._hash
+                && Arrays.equals(_text, _start, _end,
+                                 other._text, other._start, other._end);
+        }
+
+        /** The text holding this line. */
+        private final byte[] _text;
+        /** Bounds of this line in _text. */
+        private final int _start, _end;
+        /** Hash of this line's bytes. */
+        private final int _hash;
+    }
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+    /** Size of the buffer diff output is gathered in. */
+    private static final int BUFFER = 1 << 16;
+    /** Number of leading bytes searched for a NUL in isBinary. */
+    private static final int BINARY_PROBE = 8000;
+    /** Marks the start of a conflicting change. */
+    private static final byte[] OURS =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /** Separates our lines from theirs in a conflict. */
+    private static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+    /** Marks the end of a conflicting change. */
+    private static final byte[] THEIRS =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+    /** Follows a last line that has no newline. */
+    private static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** When the files gitlet writes are forced out to disk, as chosen by the
+ *  core.durability setting:
+ *    none   never; a crash may lose or truncate recent writes,
+ *    batch  new objects, commit records and the like are noted as they
+ *           are written and forced all at once just before the next ref,
+ *           HEAD or index replacement, which is then forced too,
+ *    full   every file is forced, along with its directory, as soon as it
+ *           is written.
+ *  In batch and full modes a ref never names a commit some of whose
+ *  files could be lost in a crash, since everything written before the
+ *  ref is on disk before the ref is renamed into place.
+ *
+ *  Java offers no way to sync a group of files in one call, so batch
+ *  mode still forces each noted file, and then each directory holding
+ *  one of them, once; with objects fanned out, that may be up to 256
+ *  directories. What it saves over full mode is forcing a directory
+ *  once per flush rather than once per file, and waiting on the syncs
+ *  one at a time: up to SYNC_THREADS of them are in flight together,
+ *  so the file system can commit them in one journal transaction.
+ *  Working files are never forced.
+ *  @author Theo Joseph
+ */
+class Durability {
+
+    /** Value of core.durability that never forces anything. */
+    static final String NONE = "none";
+    /** Value of core.durability that forces writes in groups. */
+    static final String BATCH = "batch";
+    /** Value of core.durability that forces every write at once. */
+    static final String FULL = "full";
+
+    /** Notes that FILE has been written in full. In full mode, FILE and
+     *  its directory are forced now; in batch mode, at the next
+     *  flush. */
+    static void written(File file) {
+        String mode = Config.get(Config.DURABILITY);
+        if (mode.equals(FULL)) {
+            force(file);
+            force(file.getAbsoluteFile().getParentFile());
+        } else if (mode.equals(BATCH)) {
+            synchronized (PENDING) {
+                PENDING.add(file);
+            }
+        }
+    }
+
+    /** Forces every file noted since the last flush, then each of their
+     *  directories once. */
+    static void flush() {
+        List<File> files;
+        synchronized (PENDING) {
+            if (PENDING.isEmpty()) {
+                return;
+            }
+            files = new ArrayList<File>(PENDING);
+            PENDING.clear();
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<File>();
+        for (File file : files) {
+            dirs.add(file.getAbsoluteFile().getParentFile());
+        }
+        ForkJoinPool pool = pool();
+        pool.submit(() -> files.parallelStream()
+                    .forEach(Durability::force)).join();
+        pool.submit(() -> dirs.parallelStream()
+                    .forEach(Durability::force)).join();
+    }
+
+    /** Returns the pool on which flush runs its syncs, made the first
+     *  time it is needed and kept for the life of the process. Syncs
+     *  mostly wait on the disk, so the pool has SYNC_THREADS threads
+     *  rather than the common pool's one per processor; like any
+     *  ForkJoinPool's, they are daemon threads, and so never keep the
+     *  JVM running. */
+    private static synchronized ForkJoinPool pool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool(SYNC_THREADS);
+        }
+        return _pool;
+    }
+
+    /** Forces FILE, which is about to replace a file that others rely
+     *  on, after flushing everything written before it, unless the mode
+     *  is none. */
+    static void sync(File file) {
+        if (!Config.get(Config.DURABILITY).equals(NONE)) {
+            flush();
+            force(file);
+        }
+    }
+
+    /** Forces directory DIR, so that files just renamed into or deleted
+     *  from it stay so, unless the mode is none. */
+    static void syncDirectory(File dir) {
+        if (!Config.get(Config.DURABILITY).equals(NONE)) {
+            force(dir.getAbsoluteFile());
+        }
+    }
+
+    /** Forces the contents of FILE, a file or directory, to disk, if it
+     *  still exists. */
+    private static void force(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            /* Some systems cannot force directories; nothing to do. */
+        }
+    }
+
+    /** Number of syncs flush keeps in flight at once. */
+    private static final int SYNC_THREADS = 32;
+
+    /** The pool returned by pool(), or null if not yet made. */
+    private static ForkJoinPool _pool;
+
+    /** Files written since the last flush, in batch mode. */
+    private static final LinkedHashSet<File> PENDING =
+        new LinkedHashSet<File>();
+}
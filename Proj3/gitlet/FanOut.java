@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/** Fan-out directories: a store of files named by id, such as
+ *  .gitlet/objects or .gitlet/metadata, in which the file for an id
+ *  lives in a subdirectory named by the id's first two hex digits. No
+ *  directory then holds more than a 256th of the entries, which keeps
+ *  lookups and listings fast on file systems that slow down with very
+ *  large directories.
+ *  @author Theo Joseph
+ */
+class FanOut {
+
+    /** Number of hex digits naming a subdirectory. */
+    static final int PREFIX = 2;
+
+    /** Returns the file for id ID in the store rooted at ROOT. */
+    static File file(File root, String id) {
+        return new File(new File(root, id.substring(0, PREFIX)),
+                        id.substring(PREFIX));
+    }
+
+    /** Returns the file for id ID in the store rooted at ROOT, creating
+     *  its subdirectory if need be. */
+    static File fileForWrite(File root, String id) {
+        File file = file(root, id);
+        file.getParentFile().mkdir();
+        return file;
+    }
+
+    /** Calls ACTION on the id of every file in the store rooted at ROOT,
+     *  in no particular order. Entries are streamed from the directories
+     *  rather than listed all at once. Files not named by an id, such as
+     *  temporaries, are skipped. */
+    static void forEach(File root, Consumer<String> action) {
+        if (!root.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> shards =
+             Files.newDirectoryStream(root.toPath())) {
+            for (Path shard : shards) {
+                String prefix = shard.getFileName().toString();
+                if (prefix.length() != PREFIX || !Files.isDirectory(shard)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(shard)) {
+                    for (Path entry : entries) {
+                        String id = prefix + entry.getFileName();
+                        if (ID.matcher(id).matches()) {
+                            action.accept(id);
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Removes the subdirectories of the store rooted at ROOT that are
+     *  empty. A writer that loses its subdirectory this way between
+     *  fileForWrite and writing makes it again (see retry). */
+    static void prune(File root) {
+        File[] shards = root.listFiles();
+        if (shards == null) {
+            return;
+        }
+        for (File shard : shards) {
+            if (shard.getName().length() == PREFIX && shard.isDirectory()) {
+                shard.delete();
+            }
+        }
+    }
+
+    /** Returns true iff FILE, which was to be written in a store, could
+     *  not be because prune removed its subdirectory, which is then made
+     *  again; the write should be retried. */
+    static boolean retry(File file) {
+        return file.getParentFile().mkdir();
+    }
+
+    /** Matches the ids of files in a store. */
+    private static final Pattern ID =
+        Pattern.compile("[0-9a-f]{" + 2 * Utils.UID_BYTES + "}");
+
+}
@@ -0,0 +1,537 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An optional file system monitor, which lets status, checkout and
+ *  merge look only at the working files that may have changed instead
+ *  of statting them all.
+ *
+ *  When core.fsmonitor is true, the Daemon runs a watcher thread that
+ *  registers every directory of the working tree with a WatchService and
+ *  appends the path of every file or directory it hears about to LOG, a
+ *  line at a time. LOG begins with a line naming the watcher's session,
+ *  and disappears when the watcher stops. A "*" line means events were
+ *  lost, so that anything may have changed.
+ *
+ *  A command that has examined the working tree records in STATE the
+ *  session, how much of LOG it had read, and the paths that were not
+ *  clean tracked files: modified, deleted or untracked ones. The next
+ *  query need look only at those paths and at those logged since; every
+ *  other tracked file is still clean and no other file exists. Index
+ *  changes need no notice: a path whose entry changes either is one of
+ *  those recorded or has its working file written, which is logged.
+ *  Without a live watcher, a recorded state from the same session, or
+ *  an intact log, the whole tree must be examined.
+ *
+ *  A query reads only LOG's first line and what was logged beyond the
+ *  recorded offset, so that it costs time in proportion to what changed
+ *  rather than to the session's history. Once a command in the daemon
+ *  has examined the whole tree, the watcher starts a new session whose
+ *  LOG keeps only what was logged after the query, and the state is
+ *  recorded against that.
+ *
+ *  The watcher hears of changes some time after they are made: the
+ *  WatchService may deliver an event late, by seconds where it polls.
+ *  So before reading LOG, a query creates a cookie file in COOKIES,
+ *  which the watcher also watches, and waits until the watcher has
+ *  logged it; by then it has logged every change made before. A query
+ *  whose cookie is not logged within COOKIE_TIMEOUT milliseconds gives
+ *  up and has the whole tree examined.
+ *  @author Theo Joseph
+ */
+class FsMonitor {
+
+    /** The log of changed paths kept by the watcher. */
+    static final File LOG = new File("./.gitlet/fsmonitor");
+    /** The state recorded by the last query. */
+    static final File STATE = new File("./.gitlet/fsmonitor-state");
+    /** Directory of the cookie files created by queries. */
+    static final File COOKIES = new File("./.gitlet/fsmonitor-cookies");
+
+    /** Starts watching the working tree on a daemon thread, replacing
+     *  any old LOG. */
+    static void start() throws IOException {
+        Watcher watcher = new Watcher();
+        Thread thread = new Thread(watcher, "fsmonitor");
+        thread.setDaemon(true);
+        _watcher = watcher;
+        thread.start();
+    }
+
+    /** Stops the watcher started by start, if any, and deletes LOG. */
+    static void stop() {
+        if (_watcher != null) {
+            _watcher.close();
+            _watcher = null;
+        }
+        LOG.delete();
+    }
+
+    /** Returns what the watcher has seen since the last recorded query,
+     *  or null if no watcher is running. */
+    static FsMonitor query() {
+        if (!LOG.isFile() || (_watcher == null && !isWatched())) {
+            return null;
+        }
+        String session;
+        long end;
+        try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+            session = log.readLine();
+            end = wholeLines(log);
+        } catch (IOException excp) {
+            return null;
+        }
+        if (session == null) {
+            return null;
+        }
+        FsMonitor monitor = new FsMonitor(session, end);
+        TreeSet<String> changed = monitor.readState();
+        if (changed == null) {
+            return monitor;
+        }
+        byte[] tail = sync(session, monitor._offset);
+        if (tail == null) {
+            return monitor;
+        }
+        int length = tail.length;
+        while (length > 0 && tail[length - 1] != '\n') {
+            length -= 1;
+        }
+        monitor._end = monitor._offset + length;
+        for (int i = 0; i < length; ) {
+            int j = i;
+            while (tail[j] != '\n') {
+                j += 1;
+            }
+            String path = text(tail, i, j);
+            if (path.equals(EVERYTHING) || path.isEmpty()) {
+                return monitor;
+            }
+            if (!path.startsWith(GITLET + "/")) {
+                changed.add(path);
+            }
+            i = j + 1;
+        }
+        monitor._changed = new TreeSet<String>();
+        for (String path : changed) {
+            if (!monitor.mayHaveChanged(parent(path))) {
+                monitor._changed.add(path);
+            }
+        }
+        return monitor;
+    }
+
+    /** A query of session SESSION whose log ends at END. */
+    private FsMonitor(String session, long end) {
+        _session = session;
+        _end = end;
+    }
+
+    /** Returns true iff only the paths in changed() need be examined. */
+    boolean isPartial() {
+        return _changed != null;
+    }
+
+    /** Returns the paths that may have changed, none inside another; a
+     *  path that is a directory stands for everything under it. Only
+     *  valid when isPartial(). */
+    Set<String> changed() {
+        return _changed;
+    }
+
+    /** Returns true iff the working file or directory PATH may differ
+     *  from what was last recorded. */
+    boolean mayHaveChanged(String path) {
+        if (_changed == null) {
+            return true;
+        }
+        for (String p = path; p != null; p = parent(p)) {
+            if (_changed.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Records that the working tree was examined as of this query, and
+     *  that SUSPECTS are the paths that were not clean tracked files.
+     *  Once the whole tree has been examined, nothing LOG held when
+     *  queried is needed any more, so the watcher of this process, if
+     *  any, drops it. */
+    void record(Collection<String> suspects) {
+        String session = _session;
+        long end = _end;
+        Watcher watcher = _watcher;
+        if (_changed == null && watcher != null) {
+            String fresh = watcher.truncate(_session, _end);
+            if (fresh != null) {
+                session = fresh;
+                end = fresh.length() + 1;
+            }
+        }
+        File tmp = new File(STATE.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeUTF(session);
+            out.writeLong(end);
+            out.writeInt(suspects.size());
+            for (String path : suspects) {
+                out.writeUTF(path);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), STATE.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the paths recorded in STATE, setting _offset to where its
+     *  query left off in LOG, or null if STATE is missing or belongs to
+     *  another session. */
+    private TreeSet<String> readState() {
+        if (!STATE.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(STATE)))) {
+            if (!in.readUTF().equals(_session)) {
+                return null;
+            }
+            _offset = in.readLong();
+            if (_offset > _end) {
+                return null;
+            }
+            TreeSet<String> paths = new TreeSet<String>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                paths.add(in.readUTF());
+            }
+            return paths;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Creates a cookie file and waits for the watcher to log it.
+     *  Returns what LOG holds from offset FROM on once that holds the
+     *  cookie, or null if it does not within COOKIE_TIMEOUT milliseconds
+     *  or LOG no longer belongs to SESSION. Each look at LOG reads only
+     *  what was appended since the last. */
+    private static byte[] sync(String session, long from) {
+        String name = ProcessHandle.current().pid() + "-"
+            + Long.toHexString(System.nanoTime());
+        File cookie = new File(COOKIES, name);
+        byte[] line =
+            (COOKIE_PREFIX + name + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            Files.createFile(cookie.toPath());
+        } catch (IOException excp) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+            long wait = 1;
+            while (true) {
+                if (!readTail(session, from, tail)) {
+                    return null;
+                }
+                byte[] log = tail.toByteArray();
+                if (contains(log, line)) {
+                    return log;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return null;
+                }
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException excp) {
+                    return null;
+                }
+                wait = Math.min(2 * wait, MAX_WAIT);
+            }
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Appends to TAIL what LOG holds beyond offset FROM and what TAIL
+     *  already holds. Returns false iff LOG is gone or no longer belongs
+     *  to SESSION. */
+    private static boolean readTail(String session, long from,
+                                    ByteArrayOutputStream tail) {
+        try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+            if (!session.equals(log.readLine())) {
+                return false;
+            }
+            long pos = from + tail.size();
+            byte[] more = new byte[(int) Math.max(0, log.length() - pos)];
+            log.seek(pos);
+            log.readFully(more);
+            tail.writeBytes(more);
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the length of the whole lines of LOG, reading back from
+     *  its end. */
+    private static long wholeLines(RandomAccessFile log) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        for (long end = log.length(); end > 0; ) {
+            int n = (int) Math.min(BLOCK_SIZE, end);
+            log.seek(end - n);
+            log.readFully(block, 0, n);
+            for (int i = n - 1; i >= 0; i -= 1) {
+                if (block[i] == '\n') {
+                    return end - n + i + 1;
+                }
+            }
+            end -= n;
+        }
+        return 0;
+    }
+
+    /** Returns true iff LOG holds LINE as one of its lines. */
+    private static boolean contains(byte[] log, byte[] line) {
+        outer:
+        for (int i = log.length - line.length; i >= 0; i -= 1) {
+            if (i > 0 && log[i - 1] != '\n') {
+                continue;
+            }
+            for (int k = 0; k < line.length; k += 1) {
+                if (log[i + k] != line[k]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns true iff a daemon holds the daemon lock. */
+    private static boolean isWatched() {
+        if (!Daemon.LOCK.exists()) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(Daemon.LOCK, "rw");
+             FileLock lock = file.getChannel().tryLock()) {
+            return lock == null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the directory holding PATH, or null if PATH is at the top
+     *  of the working tree. */
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? null : path.substring(0, slash);
+    }
+
+    /** Returns BYTES[START..END) as UTF-8 text. */
+    private static String text(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /** Watches the working tree and logs what changes in it. */
+    private static class Watcher implements Runnable {
+
+        /** A watcher of the whole working tree, with a fresh LOG. */
+        Watcher() throws IOException {
+            _service = FileSystems.getDefault().newWatchService();
+            register(Paths.get(""));
+            COOKIES.mkdir();
+            Paths.get(GITLET, COOKIES.getName()).register(
+                _service, StandardWatchEventKinds.ENTRY_CREATE);
+            newSession(new byte[0]);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    WatchKey key = _service.take();
+                    log(key);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException
+                     | IOException | IllegalArgumentException excp) {
+                close();
+                LOG.delete();
+            }
+        }
+
+        /** Stops watching. */
+        synchronized void close() {
+            _closed = true;
+            try {
+                _service.close();
+            } catch (IOException excp) {
+                /* Nothing was being watched any more anyway. */
+            }
+        }
+
+        /** Replaces LOG, if it still belongs to SESSION, with the log of
+         *  a new session holding only what was logged beyond offset FROM.
+         *  Returns the new session, or null if LOG was left alone. */
+        synchronized String truncate(String session, long from) {
+            if (_closed) {
+                return null;
+            }
+            try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+                if (!session.equals(log.readLine())
+                    || from > log.length()) {
+                    return null;
+                }
+                byte[] tail = new byte[(int) (log.length() - from)];
+                log.seek(from);
+                log.readFully(tail);
+                return newSession(tail);
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** Appends to LOG the paths named by the events of KEY, watching
+         *  any new directories among them. */
+        private synchronized void log(WatchKey key) throws IOException {
+            if (_closed) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                String name;
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    name = EVERYTHING;
+                } else {
+                    Path path =
+                        dir.resolve((Path) event.context()).normalize();
+                    name = path.toString();
+                    if (name.equals(GITLET)) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(path,
+                                             LinkOption.NOFOLLOW_LINKS)) {
+                        register(path);
+                    }
+                }
+                lines.writeBytes((name + "\n")
+                                 .getBytes(StandardCharsets.UTF_8));
+            }
+            if (!key.reset()) {
+                String name = dir.normalize().toString();
+                lines.writeBytes(((name.isEmpty() ? EVERYTHING : name) + "\n")
+                                 .getBytes(StandardCharsets.UTF_8));
+            }
+            if (LOG.length() > LOG_LIMIT) {
+                newSession(new byte[0]);
+            }
+            try (FileOutputStream out = new FileOutputStream(LOG, true)) {
+                lines.writeTo(out);
+            }
+        }
+
+        /** Watches DIR and every directory under it but .gitlet. */
+        private void register(Path dir) throws IOException {
+            Path start = dir.toString().isEmpty() ? Paths.get(".") : dir;
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                    Path d, BasicFileAttributes attrs) throws IOException {
+                    if (d.normalize().toString().equals(GITLET)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    d.register(_service,
+                               StandardWatchEventKinds.ENTRY_CREATE,
+                               StandardWatchEventKinds.ENTRY_DELETE,
+                               StandardWatchEventKinds.ENTRY_MODIFY);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /** Replaces LOG with the log of a new session, holding the
+         *  logged lines TAIL. Returns the new session. */
+        private String newSession(byte[] tail) throws IOException {
+            String session = Long.toHexString(System.currentTimeMillis())
+                + "-" + Long.toHexString(new Random().nextLong());
+            File tmp = new File(LOG.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write((session + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write(tail);
+            }
+            Files.move(tmp.toPath(), LOG.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+            return session;
+        }
+
+        /** The service told of changes. */
+        private final WatchService _service;
+        /** True once this has stopped watching. */
+        private boolean _closed;
+    }
+
+    /** A log line meaning that anything may have changed. */
+    private static final String EVERYTHING = "*";
+    /** Name of the repository directory, which is never watched but for
+     *  COOKIES. */
+    private static final String GITLET = ".gitlet";
+    /** Start of the logged path of a cookie file. */
+    private static final String COOKIE_PREFIX =
+        GITLET + "/" + COOKIES.getName() + "/";
+    /** Longest time, in milliseconds, a query waits for its cookie. */
+    private static final long COOKIE_TIMEOUT = 5000;
+    /** Longest pause, in milliseconds, between looks for a cookie. */
+    private static final long MAX_WAIT = 16;
+    /** Size of the blocks in which the end of LOG is read back. */
+    private static final int BLOCK_SIZE = 4096;
+    /** Length of LOG beyond which a new session is started. */
+    private static final long LOG_LIMIT = 4 << 20;
+
+    /** The watcher running in this process, or null. */
+    private static Watcher _watcher;
+
+    /** The watcher session queried. */
+    private final String _session;
+    /** Length of the whole lines of LOG that this query has read. */
+    private long _end;
+    /** Where the recorded query left off in LOG. */
+    private long _offset;
+    /** The paths that may have changed, or null if any may have. */
+    private TreeSet<String> _changed;
+}
@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/** Writes a synthetic repository straight into the on-disk layout, for
+ *  benchmarks and soak tests that need far more history than can be
+ *  built one gitlet command at a time. Objects, commit records, the
+ *  commit graph and refs are written directly; at the end master is
+ *  checked out into the working directory.
+ *
+ *  Usage: java gitlet.Generator [NAME=VALUE ...], run in a directory
+ *  without a repository, where the parameters are
+ *    seed      seed for every random choice (default 61),
+ *    files     number of tracked files (default 1000),
+ *    commits   number of commits after the initial one (default 10000),
+ *    churn     fraction of the files changed by each commit (0.01),
+ *    size      mean file size in bytes (default 2048),
+ *    spread    standard deviation of the logarithm of file sizes (1.0),
+ *    branching chance that a commit starts on a new branch (0.02),
+ *    branches  largest number of branches (default 16),
+ *    merges    chance that a commit merges another branch (0.05).
+ *  The same parameters always give the same repository, commit ids
+ *  included, since commit times are synthetic too.
+ *  @author Theo Joseph
+ */
+public class Generator {
+
+    /** Usage: java gitlet.Generator ARGS, as described above. */
+    public static void main(String... args) {
+        try {
+            Generator gen = new Generator(args);
+            gen.generate();
+            System.out.printf("Wrote %d commits on %d branches.%n",
+                              gen._commits + 1, gen._heads.size());
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /** A generator with the parameters given in ARGS. */
+    Generator(String... args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new GitletException("Usage: NAME=VALUE ...");
+            }
+            set(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        _random = new Random(_seed);
+    }
+
+    /** Sets the parameter NAME to VALUE. */
+    private void set(String name, String value) {
+        try {
+            switch (name) {
+            case "seed":
+                _seed = Long.parseLong(value);
+                break;
+            case "files":
+                _files = Integer.parseInt(value);
+                break;
+            case "commits":
+                _commits = Integer.parseInt(value);
+                break;
+            case "churn":
+                _churn = Double.parseDouble(value);
+                break;
+            case "size":
+                _size = Integer.parseInt(value);
+                break;
+            case "spread":
+                _spread = Double.parseDouble(value);
+                break;
+            case "branching":
+                _branching = Double.parseDouble(value);
+                break;
+            case "branches":
+                _maxBranches = Integer.parseInt(value);
+                break;
+            case "merges":
+                _merges = Double.parseDouble(value);
+                break;
+            default:
+                throw new GitletException("No parameter named " + name + ".");
+            }
+        } catch (NumberFormatException excp) {
+            throw new GitletException("Bad value for " + name + ".");
+        }
+    }
+
+    /** Writes the repository. */
+    void generate() {
+        File gitlet = new File(".gitlet");
+        if (gitlet.exists()) {
+            throw new GitletException(
+                "A gitlet version-control system already exists in the "
+                + "current directory.");
+        }
+        gitlet.mkdir();
+        Refs.REFS.mkdir();
+        new File(gitlet, "metadata").mkdir();
+        ObjectStore.OBJECTS.mkdir();
+        Refs.setCurrent("master");
+
+        Tree tree = new Tree();
+        commit("master", "initial commit", tree, null);
+        for (int i = 0; i < _files; i += 1) {
+            tree.put(fileName(i), ObjectStore.put(contents()));
+        }
+        commit("master", "add " + _files + " files", tree, null);
+        _branchNames.add("master");
+
+        for (int n = 1; n < _commits; n += 1) {
+            String branch =
+                _branchNames.get(_random.nextInt(_branchNames.size()));
+            if (_branchNames.size() < _maxBranches
+                && _random.nextDouble() < _branching) {
+                String start = branch;
+                branch = "branch-" + _branchNames.size();
+                _branchNames.add(branch);
+                _heads.put(branch, _heads.get(start));
+            }
+            tree = Tree.load(_trees.get(_heads.get(branch)));
+            if (_branchNames.size() > 1 && _random.nextDouble() < _merges) {
+                String other = branch;
+                while (other.equals(branch)) {
+                    other = _branchNames.get(
+                        _random.nextInt(_branchNames.size()));
+                }
+                if (merge(tree, branch, other)) {
+                    continue;
+                }
+            }
+            int changes = Math.max(1, (int) Math.round(_churn * _files));
+            for (int k = 0; k < changes; k += 1) {
+                int i = _random.nextInt(_files);
+                tree.put(fileName(i), ObjectStore.put(contents()));
+            }
+            commit(branch, "commit " + n + " on " + branch, tree, null);
+        }
+
+        checkout(Tree.load(_trees.get(_heads.get("master"))));
+    }
+
+    /** Merges the head of OTHER into BRANCH, whose head has tree TREE.
+     *  Files changed on both sides since their split point keep the
+     *  version on BRANCH. Returns false, writing nothing, if OTHER's head
+     *  is already in BRANCH's history. */
+    private boolean merge(Tree tree, String branch, String other) {
+        CommitGraph graph = CommitGraph.open();
+        int head = graph.lookup(_heads.get(branch));
+        int given = graph.lookup(_heads.get(other));
+        if (graph.isAncestor(given, head)) {
+            return false;
+        }
+        String split = graph.id(graph.mergeBase(head, given));
+        Tree base = Tree.load(_trees.get(split));
+        Tree theirs = Tree.load(_trees.get(_heads.get(other)));
+        for (String name : theirs.names()) {
+            String blob = tree.get(name);
+            if (blob == null || blob.equals(base.get(name))) {
+                tree.put(name, theirs.get(name));
+            }
+        }
+        commit(branch, "Merged " + other + " into " + branch + ".", tree,
+               _heads.get(other));
+        return true;
+    }
+
+    /** Commits TREE on BRANCH with message MSG, merging in the commit with
+     *  id MERGED if it is not null. */
+    private void commit(String branch, String msg, Tree tree, String merged) {
+        String treeId = tree.store();
+        _time += 1 + _random.nextInt(MAX_GAP);
+        Commit c = new Commit(msg, _heads.get(branch), merged, treeId, _time);
+        String id = c.getHashed();
+        c.store();
+        CommitGraph.append(c);
+        MessageIndex.add(c);
+        Refs.write(branch, id);
+        _heads.put(branch, id);
+        _trees.put(id, treeId);
+    }
+
+    /** Writes the files of TREE into the working directory and makes the
+     *  index match them. */
+    private void checkout(Tree tree) {
+        Index index = Index.of(tree);
+        for (String name : tree.names()) {
+            ObjectStore.checkout(tree.get(name), new File(name));
+            index.refresh(name);
+        }
+        index.store();
+    }
+
+    /** Returns the name of tracked file number I. */
+    private static String fileName(int i) {
+        return "file" + i + ".txt";
+    }
+
+    /** Returns the contents of a new file version: lines of random
+     *  lowercase text whose total length is drawn from a log-normal
+     *  distribution with mean _size. */
+    private byte[] contents() {
+        double scale =
+            Math.exp(_spread * _random.nextGaussian()
+                     - _spread * _spread / 2);
+        int length = (int) Math.min(_size * scale, (double) _size * MAX_SCALE);
+        byte[] text = new byte[length];
+        for (int k = 0; k < length; k += 1) {
+            text[k] = (byte) ('a' + _random.nextInt(LETTERS));
+        }
+        for (int k = LINE; k < length; k += LINE) {
+            text[k] = '\n';
+        }
+        return text;
+    }
+
+    /** Time of the initial commit, in seconds since the epoch. */
+    private static final long START = 1500000000;
+    /** Largest number of seconds between successive commits. */
+    private static final int MAX_GAP = 3600;
+    /** Largest file size, as a multiple of the mean. */
+    private static final int MAX_SCALE = 64;
+    /** Length of a generated line of text. */
+    private static final int LINE = 64;
+    /** Number of letters to draw text from. */
+    private static final int LETTERS = 26;
+
+    /** Seed for all random choices. */
+    private long _seed = 61;
+    /** Number of tracked files. */
+    private int _files = 1000;
+    /** Number of commits after the initial one. */
+    private int _commits = 10000;
+    /** Fraction of the files changed by each commit. */
+    private double _churn = 0.01;
+    /** Mean file size, in bytes. */
+    private int _size = 2048;
+    /** Standard deviation of the logarithm of file sizes. */
+    private double _spread = 1.0;
+    /** Chance that a commit starts a new branch. */
+    private double _branching = 0.02;
+    /** Largest number of branches. */
+    private int _maxBranches = 16;
+    /** Chance that a commit is a merge. */
+    private double _merges = 0.05;
+
+    /** Source of all random choices. */
+    private Random _random;
+    /** Time of the last commit written. */
+    private long _time = START;
+    /** Names of all branches, in order of creation. */
+    private List<String> _branchNames = new ArrayList<String>();
+    /** Maps each branch to the id of its head. */
+    private HashMap<String, String> _heads = new HashMap<String, String>();
+    /** Maps each commit id to the id of its tree. */
+    private HashMap<String, String> _trees = new HashMap<String, String>();
+}
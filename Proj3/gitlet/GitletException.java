@@ -0,0 +1,22 @@
+package gitlet;
+
+/** General exception indicating a Gitlet error. For fatal errors, the
+ *  result of .getMessage() is the error message to be printed, and the
+ *  command stops there.
+ *  @author Theo Joseph
+ */
+class GitletException extends RuntimeException {
+
+    /** A GitletException with no message. */
+    GitletException() {
+        super();
+    }
+
+    /** A GitletException with MSG as its message. */
+    GitletException(String msg) {
+        super(msg);
+    }
+
+    /** Version of the serialized form. */
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,338 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The commit id index: the full id of every commit, paired with its
+ *  position in the commit graph and kept in sorted order, so that an id,
+ *  or any unique abbreviation of one, is found by binary search.
+ *
+ *  The sorted ids live in .gitlet/commit-ids, a 16-byte header followed
+ *  by 24-byte records (the id's 20 bytes, then the position), which is
+ *  memory-mapped. New ids are appended to a small unsorted log,
+ *  .gitlet/commit-ids.log, of the same records; once the log holds
+ *  LOG_LIMIT ids it is merged into the sorted file, which is replaced
+ *  whole. A lookup is a binary search of the sorted file and a scan of
+ *  the log.
+ *
+ *  Writers, whether adding an id, merging the log or building the index
+ *  afresh, hold the lock on the log. The sorted file is replaced through
+ *  its own lock file, renamed into place in one step, so readers, who
+ *  take no lock, see either the old file or the new one whole.
+ *  @author Theo Joseph
+ */
+class IdIndex {
+
+    /** The file holding the sorted ids. */
+    static final File IDS = new File("./.gitlet/commit-ids");
+    /** The file holding recently added ids. */
+    static final File LOG = new File("./.gitlet/commit-ids.log");
+
+    /** Shortest abbreviation of an id that is resolved. */
+    static final int MIN_ABBREV = 4;
+
+    /** Records that the commit with id ID is at position POS in the
+     *  commit graph. */
+    static void add(String id, int pos) {
+        LockFile lock = new LockFile(LOG);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new FileOutputStream(LOG, true))) {
+                out.write(Utils.toBytes(id));
+                out.writeInt(pos);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Durability.written(LOG);
+            if (LOG.length() >= (long) LOG_LIMIT * RECORD) {
+                compact();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Returns the position in the commit graph of the commit with full
+     *  id ID, or CommitGraph.NONE if there is no such commit. */
+    static int position(String id) {
+        byte[] key = Utils.toBytes(id);
+        IdIndex index = open();
+        int k = index.lowerBound(key);
+        if (k < index._count
+            && compare(index._main, index.offset(k), key) == 0) {
+            return index._main.getInt(index.offset(k) + Utils.UID_BYTES);
+        }
+        for (int off = 0; off < index._log.limit(); off += RECORD) {
+            if (compare(index._log, off, key) == 0) {
+                return index._log.getInt(off + Utils.UID_BYTES);
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the full id of the commit whose id begins with PREFIX, or
+     *  null if there is none or PREFIX is not a hexadecimal string of at
+     *  least MIN_ABBREV digits. Throws GitletException if more than one
+     *  commit's id begins with PREFIX. */
+    static String resolve(String prefix) {
+        int len = prefix.length();
+        if (len < MIN_ABBREV || len > 2 * Utils.UID_BYTES
+            || !prefix.matches("[0-9a-f]+")) {
+            return null;
+        }
+        byte[] low = Utils.toBytes(pad(prefix, '0'));
+        byte[] high = Utils.toBytes(pad(prefix, 'f'));
+        IdIndex index = open();
+        TreeSet<String> found = new TreeSet<String>();
+        for (int k = index.lowerBound(low);
+             k < index._count && found.size() < 2
+                 && compare(index._main, index.offset(k), high) <= 0;
+             k += 1) {
+            found.add(id(index._main, index.offset(k)));
+        }
+        for (int off = 0; off < index._log.limit(); off += RECORD) {
+            if (compare(index._log, off, low) >= 0
+                && compare(index._log, off, high) <= 0) {
+                found.add(id(index._log, off));
+            }
+        }
+        if (found.size() > 1) {
+            throw new GitletException("Commit id " + prefix
+                                      + " is ambiguous.");
+        }
+        return found.isEmpty() ? null : found.first();
+    }
+
+    /** An index over the sorted records in MAIN and the unsorted records
+     *  in LOGGED. */
+    private IdIndex(ByteBuffer main, ByteBuffer logged) {
+        _main = main;
+        _log = logged;
+        _count = main.capacity() < HEADER ? 0 : main.getInt(COUNT);
+    }
+
+    /** Returns the index as stored on disk. The files are reread only
+     *  when their lengths have changed: the log only grows until it is
+     *  merged, and merging always lengthens the sorted file. An index
+     *  is first built from the commit graph if there is none. */
+    private static IdIndex open() {
+        if (!IDS.exists() && !LOG.exists()) {
+            LockFile lock = new LockFile(LOG);
+            try {
+                if (!IDS.exists() && !LOG.exists()) {
+                    rebuild();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        long mainLength = IDS.length(), logLength = LOG.length();
+        if (_open == null || mainLength != _mainLength
+            || logLength != _logLength) {
+            _open = new IdIndex(map(IDS),
+                                ByteBuffer.wrap(readLog(logLength)));
+            _mainLength = mainLength;
+            _logLength = logLength;
+        }
+        return _open;
+    }
+
+    /** Writes a sorted index of every commit in the commit graph,
+     *  holding the lock on LOG. */
+    private static void rebuild() {
+        CommitGraph graph = CommitGraph.open();
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            records.add(record(graph.id(pos), pos));
+        }
+        write(records);
+    }
+
+    /** Returns the sorted RECORDS less any that repeat the id of the one
+     *  before. */
+    private static List<byte[]> unique(List<byte[]> records) {
+        ArrayList<byte[]> result = new ArrayList<byte[]>();
+        for (byte[] rec : records) {
+            if (result.isEmpty()
+                || Arrays.compareUnsigned(
+                       rec, 0, Utils.UID_BYTES,
+                       result.get(result.size() - 1), 0,
+                       Utils.UID_BYTES) != 0) {
+                result.add(rec);
+            }
+        }
+        return result;
+    }
+
+    /** Merges the log into the sorted file and deletes it, holding the
+     *  lock on LOG. Readers take no lock, so one may see the new sorted
+     *  file together with the old log, as may the next process after a
+     *  crash between the two steps; they see each logged id twice, which
+     *  resolve and the next merge allow for. */
+    private static void compact() {
+        IdIndex index = open();
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        for (int k = 0; k < index._count; k += 1) {
+            records.add(copy(index._main, index.offset(k)));
+        }
+        for (int off = 0; off < index._log.limit(); off += RECORD) {
+            records.add(copy(index._log, off));
+        }
+        write(records);
+        LOG.delete();
+        _open = null;
+    }
+
+    /** Replaces the sorted file with one holding RECORDS, in order,
+     *  by way of its lock file. */
+    private static void write(List<byte[]> records) {
+        records.sort((a, b) -> Arrays.compareUnsigned(
+                         a, 0, Utils.UID_BYTES, b, 0, Utils.UID_BYTES));
+        records = unique(records);
+        LockFile lock = new LockFile(IDS);
+        try {
+            try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(lock.file())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(records.size());
+                out.writeInt(0);
+                for (byte[] rec : records) {
+                    out.write(rec);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            lock.commit();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Returns the contents of FILE mapped into memory, or an empty
+     *  buffer if there is no such file. */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the first LENGTH bytes of the log, rounded down to whole
+     *  records. */
+    private static byte[] readLog(long length) {
+        if (length == 0) {
+            return new byte[0];
+        }
+        byte[] data = Utils.readContents(LOG);
+        return Arrays.copyOf(data, (int) (Math.min(length, data.length)
+                                          / RECORD * RECORD));
+    }
+
+    /** Returns the record for id ID at position POS. */
+    private static byte[] record(String id, int pos) {
+        return ByteBuffer.allocate(RECORD).put(Utils.toBytes(id))
+            .putInt(pos).array();
+    }
+
+    /** Returns a copy of the record at OFF in BUF. */
+    private static byte[] copy(ByteBuffer buf, int off) {
+        byte[] rec = new byte[RECORD];
+        for (int i = 0; i < RECORD; i += 1) {
+            rec[i] = buf.get(off + i);
+        }
+        return rec;
+    }
+
+    /** Returns the index of the first sorted record whose id is not less
+     *  than KEY. */
+    private int lowerBound(byte[] key) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(_main, offset(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the hex id of the record at OFF in BUF. */
+    private static String id(ByteBuffer buf, int off) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        for (int i = 0; i < id.length; i += 1) {
+            id[i] = buf.get(off + i);
+        }
+        return Utils.toHex(id);
+    }
+
+    /** Compares the id of the record at OFF in BUF with KEY, as unsigned
+     *  bytes. */
+    private static int compare(ByteBuffer buf, int off, byte[] key) {
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            int c = Integer.compare(buf.get(off + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns PREFIX padded with C to the length of a full id. */
+    private static String pad(String prefix, char c) {
+        StringBuilder full = new StringBuilder(prefix);
+        while (full.length() < 2 * Utils.UID_BYTES) {
+            full.append(c);
+        }
+        return full.toString();
+    }
+
+    /** Returns the offset of sorted record K. */
+    private int offset(int k) {
+        return HEADER + RECORD * k;
+    }
+
+    /** Marks the start of the sorted file ("CIDX"). */
+    private static final int MAGIC = 0x43494458;
+    /** Version of the sorted file format. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 16;
+    /** Offset of the record count in the header. */
+    private static final int COUNT = 8;
+    /** Length of a record. */
+    private static final int RECORD = Utils.UID_BYTES + 4;
+    /** Number of logged ids that triggers a merge. */
+    private static final int LOG_LIMIT = 1024;
+
+    /** The index last returned by open(), or null. */
+    private static IdIndex _open;
+    /** Lengths of IDS and LOG when _open was read. */
+    private static long _mainLength, _logLength;
+
+    /** The mapped sorted file. */
+    private final ByteBuffer _main;
+    /** The records of the log. */
+    private final ByteBuffer _log;
+    /** Number of sorted records. */
+    private final int _count;
+}
@@ -0,0 +1,481 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** The staging index: a single binary file, .gitlet/index, listing every
+ *  file the next commit will track together with the id of its blob and
+ *  the size, modification time and inode the working file had when it was
+ *  hashed. A working file whose stat data still match its entry is known
+ *  to be unchanged without reading its contents, so staging and committing
+ *  cost time proportional to the files that actually changed.
+ *
+ *  A file is staged for addition when its entry differs from the head
+ *  commit's tree, and staged for removal when the head commit tracks it
+ *  but the index does not.
+ *
+ *  The index is replaced whole through its LockFile, and only if no other
+ *  process has replaced it since it was loaded. Between defer and flush,
+ *  as in a batch session, the index is kept in memory instead, and
+ *  written once by flush.
+ *  @author Theo Joseph
+ */
+class Index {
+
+    /** The file holding the index. */
+    static final File INDEX = new File("./.gitlet/index");
+
+    /** An index with no entries. */
+    Index() {
+        _entries = new TreeMap<String, Entry>();
+        _stamp = Long.MIN_VALUE;
+    }
+
+    /** Returns an index tracking exactly the files in TREE. The stat data
+     *  of its entries are unknown until refreshed. */
+    static Index of(Tree tree) {
+        Index index = new Index();
+        for (String name : tree.names()) {
+            index._entries.put(name, new Entry(tree.get(name), -1, 0, 0));
+        }
+        return index;
+    }
+
+    /** Returns an index tracking exactly the files in TREE, keeping the
+     *  stat data of those entries of PREVIOUS that stage the same blob. */
+    static Index of(Tree tree, Index previous) {
+        Index index = of(tree);
+        for (Map.Entry<String, Entry> e : index._entries.entrySet()) {
+            Entry old = previous._entries.get(e.getKey());
+            if (old != null && old.blob.equals(e.getValue().blob)) {
+                e.setValue(old);
+            }
+        }
+        index._stamp = previous._stamp;
+        index._version = previous._version;
+        return index;
+    }
+
+    /** Returns the index stored in INDEX, or an empty index if there is
+     *  none. When deferring, returns a copy of the index last stored in
+     *  memory instead, if any. */
+    static Index load() {
+        if (!_deferring) {
+            return read();
+        }
+        if (_deferred == null) {
+            _deferred = read();
+        }
+        return _deferred.copy();
+    }
+
+    /** Keeps the index in memory from now until flush. */
+    static void defer() {
+        _deferring = true;
+        _deferred = null;
+        _changed = false;
+    }
+
+    /** Writes the index last stored since defer, if any, and stops
+     *  deferring. Throws GitletException, leaving INDEX alone, if
+     *  another process has replaced INDEX in the meantime. */
+    static void flush() {
+        Index index = _deferred;
+        boolean changed = _changed;
+        _deferring = false;
+        _deferred = null;
+        _changed = false;
+        if (changed) {
+            index.store();
+        }
+    }
+
+    /** Returns a copy of this index that may be changed independently of
+     *  it. */
+    private Index copy() {
+        Index index = new Index();
+        index._entries = new TreeMap<String, Entry>(_entries);
+        index._stamp = _stamp;
+        index._version = _version;
+        return index;
+    }
+
+    /** Returns the index stored in INDEX, or an empty index if there is
+     *  none. */
+    private static Index read() {
+        Index index = new Index();
+        index._version = version();
+        if (!INDEX.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(INDEX)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("corrupt index");
+            }
+            int count = in.readInt();
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                in.readFully(id);
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                index._entries.put(path,
+                    new Entry(Utils.toHex(id), size, mtime, inode));
+            }
+            index._stamp = stamp(Files.getLastModifiedTime(INDEX.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Writes this index back to INDEX. Throws GitletException, leaving
+     *  INDEX alone, if another process has replaced it since this index
+     *  was loaded. */
+    void store() {
+        if (!tryStore()) {
+            throw new GitletException(
+                "The index was changed by another process; try again.");
+        }
+    }
+
+    /** Writes this index back to INDEX, by way of its lock file, unless
+     *  another process has replaced INDEX since this index was loaded.
+     *  Returns true iff it was written. An index that was not loaded
+     *  from INDEX is always written. When deferring, this index instead
+     *  becomes the one kept in memory. */
+    boolean tryStore() {
+        if (_deferring) {
+            Index index = copy();
+            if (_deferred != null) {
+                index._version = _deferred._version;
+            }
+            _deferred = index;
+            _changed = true;
+            return true;
+        }
+        try (LockFile lock = new LockFile(INDEX)) {
+            return write(lock);
+        }
+    }
+
+    /** Writes this index back to INDEX as tryStore does, but only if no
+     *  other process holds its lock; returns true iff it was written.
+     *  For writes that only save later work, which are better skipped
+     *  than waited for. */
+    boolean tryStoreIfIdle() {
+        if (_deferring) {
+            return tryStore();
+        }
+        LockFile lock = LockFile.attempt(INDEX);
+        if (lock == null) {
+            return false;
+        }
+        try {
+            return write(lock);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Writes this index to INDEX through LOCK, the lock on INDEX, unless
+     *  another process has replaced INDEX since this index was loaded.
+     *  Returns true iff it was written. */
+    private boolean write(LockFile lock) {
+        if (_version != null && !_version.equals(version())) {
+            return false;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(lock.file())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.write(Utils.toBytes(entry.blob));
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        lock.commit();
+        _version = version();
+        return true;
+    }
+
+    /** Returns a string that changes whenever INDEX is replaced: its
+     *  inode, size and modification time, or "" if there is no INDEX. */
+    private static String version() {
+        if (!INDEX.exists()) {
+            return "";
+        }
+        Entry stat = stat(INDEX);
+        return stat.inode + ":" + stat.size + ":" + stat.mtime;
+    }
+
+    /** Stages the working file PATH and returns the id of its blob. The
+     *  file is hashed and stored only if its stat data no longer match
+     *  its entry. */
+    String add(String path) {
+        File file = new File(path);
+        Entry old = _entries.get(path);
+        Entry stat = stat(file);
+        if (old != null && isClean(old, stat)) {
+            return old.blob;
+        }
+        stat.blob = ObjectStore.put(file);
+        _entries.put(path, stat);
+        return stat.blob;
+    }
+
+    /** Stages the working files PATHS, as add does for each. Files are
+     *  statted, hashed and stored in parallel, one task per file, on
+     *  ADD_THREADS threads. A thread holds at most STREAM_BUFFER_SIZE
+     *  bytes of contents at a time, since smaller files are read whole
+     *  and larger ones streamed through a buffer of that size, so that
+     *  much memory times ADD_THREADS bounds what add holds at once. */
+    void addAll(List<String> paths) {
+        if (paths.size() == 1) {
+            add(paths.get(0));
+            return;
+        }
+        List<Callable<Entry>> tasks = new ArrayList<Callable<Entry>>();
+        for (String path : paths) {
+            Entry old = _entries.get(path);
+            tasks.add(() -> {
+                File file = new File(path);
+                Entry stat = stat(file);
+                if (old != null && isClean(old, stat)) {
+                    return old;
+                }
+                stat.blob = ObjectStore.put(file);
+                return stat;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(ADD_THREADS);
+        try {
+            List<Future<Entry>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < paths.size(); i += 1) {
+                _entries.put(paths.get(i), results.get(i).get());
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Stages the blob with id BLOB for PATH, whose working file has just
+     *  been written with that blob's contents. */
+    void put(String path, String blob) {
+        Entry stat = stat(new File(path));
+        stat.blob = blob;
+        _entries.put(path, stat);
+    }
+
+    /** Records the current stat data of the working file PATH, which is
+     *  known to hold the contents of its entry's blob. */
+    void refresh(String path) {
+        Entry entry = _entries.get(path);
+        if (entry != null) {
+            Entry stat = stat(new File(path));
+            stat.blob = entry.blob;
+            _entries.put(path, stat);
+        }
+    }
+
+    /** Returns true iff the working file PATH is known, from stat data
+     *  alone, to hold the contents of its entry's blob; false if it is
+     *  missing. */
+    boolean isUnchanged(String path) {
+        Entry entry = _entries.get(path);
+        File file = new File(path);
+        return entry != null && file.isFile() && isClean(entry, stat(file));
+    }
+
+    /** Returns true iff a working file PATH whose stat data are ATTRS, as
+     *  returned by attributes, is known from them alone to hold the
+     *  contents of its entry's blob. */
+    boolean isUnchanged(String path, Map<String, Object> attrs) {
+        Entry entry = _entries.get(path);
+        return entry != null && isClean(entry, entry(attrs));
+    }
+
+    /** Returns the id of the blob staged for PATH, or null if PATH is not
+     *  tracked. */
+    String get(String path) {
+        Entry entry = _entries.get(path);
+        return entry == null ? null : entry.blob;
+    }
+
+    /** Returns true iff PATH is tracked. */
+    boolean contains(String path) {
+        return _entries.containsKey(path);
+    }
+
+    /** Stops tracking PATH. */
+    void remove(String path) {
+        _entries.remove(path);
+    }
+
+    /** Returns all tracked paths, in sorted order. */
+    NavigableSet<String> paths() {
+        return _entries.navigableKeySet();
+    }
+
+    /** Returns true iff this index tracks exactly the files of TREE. */
+    boolean matches(Tree tree) {
+        if (tree.names().size() != _entries.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            if (!e.getValue().blob.equals(tree.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the tree the next commit would record. */
+    Tree toTree() {
+        Tree tree = new Tree();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            tree.put(e.getKey(), e.getValue().blob);
+        }
+        return tree;
+    }
+
+    /** Returns true iff OLD may be trusted to describe a file whose
+     *  current stat data are STAT. Entries written in the same clock tick
+     *  as the index itself are racily clean and are never trusted. */
+    private boolean isClean(Entry old, Entry stat) {
+        return old.size == stat.size && old.mtime == stat.mtime
+            && old.inode == stat.inode && old.mtime < _stamp;
+    }
+
+    /** Returns an entry, without a blob, holding the stat data of
+     *  FILE. */
+    private static Entry stat(File file) {
+        try {
+            return entry(attributes(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns an entry, without a blob, holding the stat data ATTRS. */
+    private static Entry entry(Map<String, Object> attrs) {
+        return new Entry(null, (Long) attrs.get("size"),
+                         stamp((FileTime) attrs.get("lastModifiedTime")),
+                         (Long) attrs.get("ino"));
+    }
+
+    /** Returns the attributes of PATH that matter to the index, read in
+     *  one stat call with OPTIONS: "size", "lastModifiedTime" and "ino"
+     *  (0 where inode numbers are not available), as well as
+     *  "isDirectory" and "isRegularFile". */
+    static Map<String, Object> attributes(Path path, LinkOption... options)
+        throws IOException {
+        try {
+            return Files.readAttributes(path, ATTRIBUTES, options);
+        } catch (UnsupportedOperationException excp) {
+            BasicFileAttributes basic =
+                Files.readAttributes(path, BasicFileAttributes.class,
+                                     options);
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put("size", basic.size());
+            attrs.put("lastModifiedTime", basic.lastModifiedTime());
+            attrs.put("ino", 0L);
+            attrs.put("isDirectory", basic.isDirectory());
+            attrs.put("isRegularFile", basic.isRegularFile());
+            return attrs;
+        }
+    }
+
+    /** Returns TIME in nanoseconds. */
+    private static long stamp(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** The stat data and blob recorded for one tracked file. */
+    private static class Entry {
+        /** An entry for blob BLOB, from a file with size SIZE, modification
+         *  time MTIME and inode INODE. */
+        Entry(String blob, long size, long mtime, long inode) {
+            this.blob = blob;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /** Id of the staged blob. */
+        private String blob;
+        /** Size in bytes, or -1 if unknown. */
+        private long size;
+        /** Modification time, in nanoseconds. */
+        private long mtime;
+        /** Inode number, or 0 if unknown. */
+        private long inode;
+    }
+
+    /** The attributes read by attributes. */
+    private static final String ATTRIBUTES =
+        "unix:size,lastModifiedTime,ino,isDirectory,isRegularFile";
+
+    /** Number of files addAll works on at once. */
+    private static final int ADD_THREADS =
+        Runtime.getRuntime().availableProcessors();
+
+    /** Marks the start of an index file ("GIDX"). */
+    private static final int MAGIC = 0x47494458;
+    /** Version of the index file format. */
+    private static final int VERSION = 1;
+
+    /** True between defer and flush. */
+    private static boolean _deferring;
+    /** When deferring, the index last loaded or stored, or null. */
+    private static Index _deferred;
+    /** True iff an index has been stored since defer. */
+    private static boolean _changed;
+
+    /** Maps tracked paths to their entries. */
+    private TreeMap<String, Entry> _entries;
+    /** Modification time of the index file when it was loaded. */
+    private long _stamp;
+    /** Version of INDEX this index was loaded from, or null if it was
+     *  not loaded. */
+    private String _version;
+}
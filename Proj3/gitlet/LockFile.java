@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/** An exclusive lock on a repository file, taken by creating the file's
+ *  lock file, FILE.lock, which no other process may then create. New
+ *  contents for the file are written to the lock file and renamed over
+ *  the file by commit, so that readers see either the old contents or
+ *  the new, never a mixture, and a crash leaves the old contents intact.
+ *  A lock that is closed without being committed is released and the
+ *  file left untouched; a lock may also be taken just to keep other
+ *  processes out while a file is changed in place.
+ *
+ *  A process that finds the lock file present waits for it to go away,
+ *  for up to TIMEOUT milliseconds. A lock file left by a crash must be
+ *  removed by hand.
+ *  @author Theo Joseph
+ */
+class LockFile implements AutoCloseable {
+
+    /** Takes the lock on TARGET. Throws GitletException if it cannot be
+     *  had within TIMEOUT milliseconds. */
+    LockFile(File target) {
+        this(target, TIMEOUT);
+        if (!_held) {
+            throw new GitletException(
+                "Unable to lock " + target.getPath()
+                + "; another gitlet process may be running. If not,"
+                + " remove " + _lock.getPath() + ".");
+        }
+    }
+
+    /** Tries for up to WAIT milliseconds to take the lock on TARGET,
+     *  noting whether it was had. */
+    private LockFile(File target, long wait) {
+        _target = target;
+        _lock = new File(target.getPath() + ".lock");
+        long deadline = System.currentTimeMillis() + wait;
+        long pause = 1;
+        while (true) {
+            try {
+                Files.createFile(_lock.toPath());
+                _held = true;
+                return;
+            } catch (FileAlreadyExistsException excp) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException excp) {
+                throw new GitletException("Interrupted.");
+            }
+            pause = Math.min(2 * pause, MAX_WAIT);
+        }
+    }
+
+    /** Returns the lock on TARGET if no other process holds it, and
+     *  otherwise null, without waiting. */
+    static LockFile attempt(File target) {
+        LockFile lock = new LockFile(target, 0);
+        return lock._held ? lock : null;
+    }
+
+    /** Returns the lock file, to which the new contents of the locked
+     *  file are written. */
+    File file() {
+        return _lock;
+    }
+
+    /** Writes CONTENTS to the lock file. */
+    void write(byte[] contents) {
+        Utils.writeContents(_lock, contents);
+    }
+
+    /** Replaces the locked file with the lock file, releasing the
+     *  lock. Unless core.durability is none, everything written before
+     *  is on disk first, and the replacement is on disk after. */
+    void commit() {
+        Durability.sync(_lock);
+        rename(_lock, _target);
+        _committed = true;
+        Durability.syncDirectory(_target.getAbsoluteFile().getParentFile());
+    }
+
+    /** Releases the lock, leaving the locked file as it was, unless it
+     *  has been committed. */
+    @Override
+    public void close() {
+        if (!_committed) {
+            _lock.delete();
+        }
+    }
+
+    /** Writes CONTENTS to FILE by way of a temporary file in the same
+     *  directory, so that FILE never holds partial contents. Meant for
+     *  files that, once written, never change, such as objects and
+     *  commit records; two processes writing the same such file at once
+     *  write the same contents, so no lock is needed. */
+    static void writeAtomically(File file, byte[] contents) {
+        File tmp;
+        try {
+            try {
+                tmp = File.createTempFile("tmp-", null,
+                                          file.getParentFile());
+            } catch (IOException excp) {
+                if (!FanOut.retry(file)) {
+                    throw excp;
+                }
+                tmp = File.createTempFile("tmp-", null,
+                                          file.getParentFile());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Utils.writeContents(tmp, contents);
+            rename(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+        Durability.written(file);
+    }
+
+    /** Renames FROM to TO, replacing TO, as one atomic step where the
+     *  file system allows. */
+    private static void rename(File from, File to) {
+        try {
+            try {
+                Files.move(from.toPath(), to.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(from.toPath(), to.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Longest time, in milliseconds, to wait for a lock. */
+    static final long TIMEOUT = 10000;
+    /** Longest pause, in milliseconds, between tries for a lock. */
+    private static final long MAX_WAIT = 64;
+
+    /** The locked file. */
+    private final File _target;
+    /** Its lock file. */
+    private final File _lock;
+    /** True iff the lock was had. */
+    private boolean _held;
+    /** True once the lock file has replaced the locked file. */
+    private boolean _committed;
+}
@@ -1,14 +1,26 @@
 package gitlet;
 
 import java.io.File;
-import java.util.LinkedList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.io.IOException;
-import java.util.Arrays;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.util.stream.Stream;
+import java.util.function.IntUnaryOperator;
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Andrew Leong and Khalil Joseph
@@ -23,7 +35,12 @@ public class Main {
             System.out.println("Please enter a command.");
             System.exit(0);
         } else {
-            commandParse(args);
+            try {
+                commandParse(args);
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+                System.exit(0);
+            }
         }
     }
 
@@ -31,8 +48,8 @@ public class Main {
     static void isInitialized() {
         File getlit = new File("./.gitlet");
         if (!getlit.exists()) {
-            System.err.println("Not in an initialized .gitlet directory.");
-            System.exit(0);
+            throw new GitletException(
+                "Not in an initialized .gitlet directory.");
         }
     }
 
@@ -40,8 +57,7 @@ public class Main {
     public static void twoParse(String... args) {
         isInitialized();
         if (args.length != 2) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
     }
 
@@ -70,8 +86,7 @@ public class Main {
             status();
             break;
         case "find":
-            twoParse(args);
-            find(args[1]);
+            findParse(args);
             break;
         case "log":
             logParse(args);
@@ -97,16 +112,31 @@ public class Main {
             twoParse(args);
             branch(args[1]);
             break;
+        case "gc":
+        case "repack":
+            gc(args);
+            break;
+        case "daemon":
+            Daemon.command(args);
+            break;
+        case "config":
+            Config.command(args);
+            break;
+        case "diff":
+            Diff.command(args);
+            break;
+        case "batch":
+            Batch.command(args);
+            break;
         default:
-            System.out.println("No command with that name exists.");
-            System.exit(0);
+            throw new GitletException("No command with that name exists.");
         }
     }
 
     /** Parses the merge command given by ARGS. */
     public static void mergeParse(String... args) {
         isInitialized();
-        twoParse();
+        twoParse(args);
         mergeEdge(args[1]);
     }
 
@@ -115,179 +145,183 @@ public class Main {
     public static void mergeEdge(String given) {
         Repo r = new Repo("");
         Branch current = r.getCurrent();
-        File givenFile = new File("./.gitlet/global/" + given);
-        if (!givenFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        Branch givenBranch = Branch.load(given);
+        if (givenBranch == null) {
+            throw new GitletException(
+                "A branch with that name does not exist.");
         }
-        Branch givenBranch = loadBranch(givenFile);
         String newid = givenBranch.getSHA();
         String oldid = current.getSHA();
         checkForUntracked(oldid, newid);
-        File stage = new File("./.gitlet/stage");
-        File[] staged = stage.listFiles();
-        if (staged.length > 0) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (!Index.load().matches(treeOf(oldid))) {
+            throw new GitletException("You have uncommitted changes.");
         }
-        if (givenBranch.equals(current)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+        if (givenBranch.getName().equals(current.getName())) {
+            throw new GitletException("Cannot merge a branch with itself.");
         }
-        LinkedList<String> ancestors = current.getChained();
-        LinkedList<String> histories = givenBranch.getChained();
-        if (ancestors.contains(newid)) {
+        CommitGraph graph = CommitGraph.open();
+        int oldpos = graph.lookup(oldid);
+        int newpos = graph.lookup(newid);
+        if (graph.isAncestor(newpos, oldpos)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-        } else if (histories.contains(oldid)) {
+        } else if (graph.isAncestor(oldpos, newpos)) {
+            copyFiles(oldid, newid);
             current.setSHA(newid);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
         } else {
-            String splitPt = twoRoadsDiverged(ancestors, histories);
-            oldid = oldid.substring(0, 6);
-            newid = newid.substring(0, 6);
-            boolean conflicted = merge(oldid, newid, splitPt, current.getName());
-            if (conflicted) {
+            String splitPt = twoRoadsDiverged(graph, oldpos, newpos);
+            List<String> conflicted =
+                merge(oldid, newid, splitPt, current.getName());
+            if (!conflicted.isEmpty()) {
+                for (String name : conflicted) {
+                    System.out.println("Conflict in " + name);
+                }
                 System.out.println("Encountered a merge conflict.");
-                System.exit(0);
             } else {
                 current.commit(
                     "Merged " + current.getName() + " with " 
-                    + givenBranch.getName());
+                    + givenBranch.getName(), newid);
             }
         }
         current.store();
         givenBranch.store();
     }
 
-    /** Finds the split point of two branch histories A and B. 
+    /** Finds the split point of the histories of the commits at positions
+    A and B in GRAPH: their lowest common ancestor.
     * "Two roads diverged in a yellow wood/
     * And sorry I could not travel both/
     * And be one traveler, long I stood/
     * And looked down one as far as I could/
     * To where it bent in the undergrowth..."
     */
-    public static String twoRoadsDiverged(
-        LinkedList<String> A, LinkedList<String> B) {
-        Iterator<String> aItr = A.iterator();
-        Iterator<String> bItr = B.iterator();
-        String splitPt = aItr.next();
-        bItr.next();
-        while (aItr.hasNext()
-            && bItr.hasNext()) {
-            String one = aItr.next();
-            String two = bItr.next();
-            if (one != two) {
-                break;
-            } else {
-                splitPt = one;
-            }
-        }
-        return splitPt.substring(0, 6);
+    public static String twoRoadsDiverged(CommitGraph graph, int a, int b) {
+        return graph.id(graph.mergeBase(a, b));
     }
 
     /** Merges CURRENT with GIVEN; i.e. integrates changes from commit
     GIVEN into commit CURRENT on branch CURRANT that have happened since
-    commit SPLIT. Returns true if a conflict occurs. */
-    public static boolean merge(
+    commit SPLIT. Returns the names of the conflicted files, in sorted
+    order. Files are compared by the blob ids in the three trees, and
+    only those changed in GIVEN since SPLIT and different in CURRENT are
+    touched; only those changed on both sides are read, to merge their
+    lines. Their working files are written in parallel; the index is
+    updated once they are all written. */
+    public static List<String> merge(
         String current, String given, String split, String currant) {
-        boolean conflicting = false;
-        File givenfile = new File("./.gitlet/versions/" + given);
-        File currentfile = new File("./.gitlet/versions/" + current);
-        File splitfile = new File("./.gitlet/versions/" + split);
-        List<String> allFiles = Utils.plainFilenamesIn(givenfile);
-        allFiles.addAll(0, Utils.plainFilenamesIn(currentfile));
-        allFiles.addAll(0, Utils.plainFilenamesIn(splitfile));
-        Iterator<String> iter = allFiles.iterator();
-        while (iter.hasNext()) {
-            String name = iter.next();
-            File currentVersion =
-                new File("./.gitlet/versions/" + current + "/" + name);
-            File splitVersion =
-                new File("./.gitlet/versions/" + split + "/" + name);
-            File g =
-                new File("./.gitlet/versions/" + given + "/" + name);
-            String cSHA = toSHA(currentVersion);
-            String gSHA = toSHA(g);
-            String sSHA = toSHA(splitVersion);
-            conflicting = choices(
-                currentVersion, splitVersion, g, cSHA, gSHA, sSHA, name,
-                current, given, currant);
-        }
-        return conflicting;
-    }
-
-    /** Modifies CURRENTVERSION, SPLITVERSION, and G versions of file NAME
-    according to which have been modified, added, or deleted. CSHA, GSHA, SSHA
-    are used to compare the contents of each file. Returns TRUE if a
-    merge conflict occurs. */
-    private static boolean choices(File currentVersion, File splitVersion,
-        File g, String cSHA, String gSHA, String sSHA, String name, 
-        String current, String given, String currant) {
-        if (g.exists()) {
-            if (currentVersion.exists()
-                && splitVersion.exists()) {
-                if (!sSHA.equals(gSHA)) {
-                    if (sSHA.equals(cSHA)) {
-                        checkoutFile(name, given);
-                        File overwritten = new File(name);
-                        stage(overwritten);
-                    } else if (!cSHA.equals(gSHA)) {
-                        conflictManagement(currentVersion, g);
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            } else if (!splitVersion.exists()) {
-                if (currentVersion.exists()) {
-                    if (!cSHA.equals(gSHA)) {
-                        conflictManagement(currentVersion, g);
-                        return true;
-                    }
-                } else {
-                    checkoutFile(name, given);
-                    File overwrite = new File(name);
-                    stage(overwrite);
-                }
-            } else {
-                if (!sSHA.equals(gSHA)) {
-                    conflictManagement(null, g);
-                    return true;
-                }
+        Tree currentTree = treeOf(current);
+        Tree givenTree = treeOf(given);
+        Tree splitTree = treeOf(split);
+        TreeSet<String> allFiles = new TreeSet<String>(givenTree.names());
+        allFiles.addAll(splitTree.names());
+        ArrayList<String> changed = new ArrayList<String>();
+        for (String name : allFiles) {
+            String gSHA = givenTree.get(name);
+            if (!Objects.equals(gSHA, splitTree.get(name))
+                && !Objects.equals(gSHA, currentTree.get(name))) {
+                changed.add(name);
             }
-        } else if (splitVersion.exists()) {
-            if (currentVersion.exists()
-                && cSHA.equals(sSHA)) {
-                rm(name, current, currant);
+        }
+        List<String> results = changed.parallelStream()
+            .map(name -> choices(currentTree.get(name), givenTree.get(name),
+                                 splitTree.get(name), name))
+            .collect(Collectors.toList());
+        Index index = Index.load();
+        ArrayList<String> conflicted = new ArrayList<String>();
+        for (int i = 0; i < changed.size(); i += 1) {
+            String name = changed.get(i);
+            String result = results.get(i);
+            if (CONFLICTED.equals(result)) {
+                conflicted.add(name);
+            } else if (result == null) {
+                index.remove(name);
             } else {
-                conflictManagement(currentVersion, null);
-                return true;
+                index.put(name, result);
             }
+        }
+        index.store();
+        return conflicted;
+    }
+
+    /** Brings the working file NAME up to date for a merge, where CSHA,
+    GSHA and SSHA are the ids of the blobs holding its current, given and
+    split-point versions, or null where the file is absent. GSHA differs
+    from both others. If the current version is unchanged since the split
+    point, the given version replaces it; otherwise the two are merged
+    line by line. Returns the id of the blob to stage for NAME, null if
+    it is to be removed, or CONFLICTED if the lines could not be merged
+    and the file is left unstaged. */
+    private static String choices(String cSHA, String gSHA, String sSHA,
+                                  String name) {
+        if (!Objects.equals(cSHA, sSHA)) {
+            return conflictManagement(name, sSHA, cSHA, gSHA);
+        } else if (gSHA == null) {
+            new File(name).delete();
         } else {
-            return false;
+            ObjectStore.checkout(gSHA, new File(name));
         }
-        return false;
+        return gSHA;
     }
 
-    /** Writes file to working directory showing conflicting passages.
-    Does not stage result. */
-    private static void conflictManagement(File current, File given) {
-        if (current == null || given == null) {
-            return;
+    /** Writes file NAME to working directory merging its versions: changes
+    made since the split point on only one side are merged line by line,
+    and each run of lines changed on both is set off by conflict markers,
+    as found by Diff. SPLIT, CURRENT and GIVEN are the ids of the blobs
+    holding the three versions, or null where the file is absent. Returns
+    CONFLICTED if there were any such runs, else the id of the blob
+    holding the merged file, which is stored. */
+    private static String conflictManagement(String name, String split,
+                                             String current, String given) {
+        Diff.Merged merged = Diff.conflict(
+            split == null ? null : ObjectStore.read(split),
+            current == null ? null : ObjectStore.read(current),
+            given == null ? null : ObjectStore.read(given));
+        File file = new File(name);
+        file.delete();
+        Utils.writeContents(file, merged.contents);
+        if (merged.conflicted) {
+            return CONFLICTED;
         }
+        return ObjectStore.put(merged.contents);
     }
 
     /** Parses the log command given by  ARGS. */
     public static void logParse(String... args) {
         isInitialized();
-        if (args.length > 1) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
-        }
+        long[] limits = logLimits(args);
         Repo man = new Repo("dummy");
         Branch current = man.getCurrent();
-        log(current);
+        log(current, limits[0], limits[1]);
+    }
+
+    /** Returns the limits given by the options in ARGS to log or
+    global-log: the most commits to print ("-n COUNT", by default no
+    limit) and the earliest time to print, in seconds since the epoch
+    ("--since DATE", where DATE is "yyyy-MM-dd" or "yyyy-MM-dd HH:mm:ss"
+    in local time). */
+    private static long[] logLimits(String... args) {
+        long[] limits = {Long.MAX_VALUE, Long.MIN_VALUE};
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new GitletException("Incorrect operands.");
+                } else if (args[i].equals("-n")) {
+                    limits[0] = Long.parseLong(args[i + 1]);
+                } else if (args[i].equals("--since")) {
+                    String date = args[i + 1];
+                    if (date.length() == SHORT_DATE) {
+                        date += " 00:00:00";
+                    }
+                    limits[1] = LocalDateTime.parse(date, DATE_FORMAT)
+                        .atZone(ZoneId.systemDefault()).toEpochSecond();
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            throw new GitletException("Incorrect operands.");
+        }
+        return limits;
     }
 
     /** Parses ARGS for a checkout command. */
@@ -305,27 +339,22 @@ public class Main {
             && args[2].equals("--")) {
             checkoutFile(args[3], args[1]);
         } else {
-            System.out.println("Incorrect operands");
-            System.exit(0);
+            throw new GitletException("Incorrect operands");
         }
     }
 
     /** Checks out FILENAME in commit with hash CURRENT. */
     public static void checkoutFile(String filename, String current) {
-        String abbrev = current.substring(0, 6);
-        File toCopy = new File(
-            "./.gitlet/versions/" + abbrev + "/" + filename);
-        File commitWithHash = new File("./.gitlet/versions/" + abbrev);
-        if (!commitWithHash.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        Commit commitWithHash = findCommit(current);
+        if (commitWithHash == null) {
+            throw new GitletException("No commit with that id exists.");
         }
-        if (!toCopy.exists()) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+        String toCopy = Tree.load(commitWithHash.getTree()).get(filename);
+        if (toCopy == null) {
+            throw new GitletException("File does not exist in that commit.");
         } else {
             File toOverwrite = new File(filename);
-            Utils.writeContents(toOverwrite, Utils.readContents(toCopy));
+            ObjectStore.checkout(toCopy, toOverwrite);
         }
     }
 
@@ -333,48 +362,42 @@ public class Main {
     to earlier commit. Errors if there are untracked files that might 
     be permanently lost. */
     public static void reset(String hash) {
-        try {
-            Repo r = new Repo("");
-            Branch rewound = r.getCurrent();
-            String oldid = r.getCurrent().typableHash();
-            String id = hash.substring(0, 6);
-            checkForUntracked(oldid, id);
-            File commitsWithId = new File("./.gitlet/metadata/" + id);
-            if (!commitsWithId.exists()) {
-                System.out.println("No commit with that id exists.");
-                System.exit(0);
-            }
-            File[] commitWithId = commitsWithId.listFiles();
-            String fullID = commitWithId[0].getName();
-            rewound.setSHA(fullID);
-            copyFiles(oldid, id);
-            rewound.store();
-        } catch (StringIndexOutOfBoundsException e) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+        Repo r = new Repo("");
+        Branch rewound = r.getCurrent();
+        Commit commitWithId = findCommit(hash);
+        if (commitWithId == null) {
+            throw new GitletException("No commit with that id exists.");
         }
+        String id = commitWithId.getHashed();
+        copyFiles(rewound.getSHA(), id);
+        rewound.setSHA(id);
+        rewound.store();
     }
 
-    /** Checks for files untracked by commit w/hash ID and 
-    tracked by commit w/hash NEWID. */
+    /** Checks for files untracked by commit w/hash ID and
+    tracked by commit w/hash NEWID. Only the files of NEWID are looked at,
+    not the whole working directory. */
     private static void checkForUntracked(String id, String newid) {
-        id = id.substring(0, 6);
-        newid = newid.substring(0, 6);
-        List<String> workingFiles = Utils.plainFilenamesIn(".");
-        Iterator<String> iter = workingFiles.iterator();
-        String f;
-        while (iter.hasNext()) {
-            f = iter.next();
-            File tracked = 
-                new File("./.gitlet/versions/" + id + "/" + f);
-            File tracked2 =
-                new File("./.gitlet/versions/" + newid + "/" + f);
-            if (!tracked.exists() && tracked2.exists()) {
-                System.out.println(
-                    "There is an untracked file in the way;"
-                    + " delete it or add it first.");
-                System.exit(0);
-            }
+        Tree tracked = treeOf(id);
+        Tree tracked2 = treeOf(newid);
+        Index index = Index.load();
+        FsMonitor monitor = FsMonitor.query();
+        for (String f : tracked2.names()) {
+            checkUntracked(f, tracked, index, monitor);
+        }
+    }
+
+    /** Throws if F is a working file that is neither tracked by TRACKED
+    nor staged in INDEX. If MONITOR is not null, F is looked for only if
+    MONITOR says it may have appeared. */
+    private static void checkUntracked(String f, Tree tracked, Index index,
+                                       FsMonitor monitor) {
+        if (!tracked.contains(f) && !index.contains(f)
+            && (monitor == null || monitor.mayHaveChanged(f))
+            && new File(f).exists()) {
+            throw new GitletException(
+                "There is an untracked file in the way;"
+                + " delete it or add it first.");
         }
     }
 
@@ -383,18 +406,15 @@ public class Main {
         Repo r = new Repo("");
         Branch former = r.getCurrent();
         String formerName = former.getName();
-        File bran = new File("./.gitlet/global/" + branch);
-        Branch toCheckout = loadBranch(bran);
-        checkForUntracked(former.typableHash(), toCheckout.typableHash());
-        if (!bran.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+        Branch toCheckout = Branch.load(branch);
+        if (toCheckout == null) {
+            throw new GitletException("No such branch exists.");
         }
         if (toCheckout.isCurrent()) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw new GitletException(
+                "No need to checkout the current branch.");
         }
-        copyFiles(former.typableHash(), toCheckout.typableHash());
+        copyFiles(former.getSHA(), toCheckout.getSHA());
         former.leave();
         toCheckout.arrive();
         former.store();
@@ -403,44 +423,48 @@ public class Main {
 
     /** Copies files from commit w/hash LATTER to working directory.
     Deletes files that are in working directory and FORMER but not in
-    LATTER. Makes LATTER the HEAD. Clears the staging area. */
+    LATTER. Resets the index to LATTER's files. Only files whose blobs
+    differ between the two commits are written, plus those the same in
+    both that the index cannot vouch are unmodified; with a file system
+    monitor running, files it has not seen change need no vouching.
+    Throws, before touching anything, if an untracked file is in the
+    way. */
     private static void copyFiles(String former, String latter) {
-        String toCopyLocation =
-            "./.gitlet/versions/" + latter;
-        File toCopy = new File(toCopyLocation);
-        File[] files = toCopy.listFiles();
-        String toOverwriteLocation =
-            "./.gitlet/versions/" + former;
-        File working = new File(".");
-        File[] workingFiles = working.listFiles();
-        for (File fi: files) {
-            File copy = new File(fi.getName());
-            Utils.writeContents(copy, Utils.readContents(fi));
-        }
-        for (File w: workingFiles) {
-            File formerLocation =
-                new File(toOverwriteLocation + "/" + w.getName());
-            File latterLocation =
-                new File(toCopyLocation + "/" + w.getName());
-            if (formerLocation.exists()
-                && (!latterLocation.exists())) {
-                w.delete();
+        Tree toOverwrite = treeOf(former);
+        Tree toCopy = treeOf(latter);
+        Index old = Index.load();
+        FsMonitor monitor = FsMonitor.query();
+        ArrayList<String> writes = new ArrayList<String>();
+        for (String name : toCopy.names()) {
+            String blob = toCopy.get(name);
+            if (!blob.equals(toOverwrite.get(name))) {
+                checkUntracked(name, toOverwrite, old, monitor);
+                writes.add(name);
+            } else if (!blob.equals(old.get(name))
+                       || ((monitor == null || monitor.mayHaveChanged(name))
+                           && !old.isUnchanged(name))) {
+                writes.add(name);
             }
         }
-        File stagingArea = new File("./.gitlet/stage");
-        File[] staged = stagingArea.listFiles();
-        for (File s: staged) {
-            s.delete();
+        Index index = Index.of(toCopy, old);
+        for (String name : writes) {
+            ObjectStore.checkout(toCopy.get(name), new File(name));
+            index.refresh(name);
         }
+        for (String name : toOverwrite.names()) {
+            if (!toCopy.contains(name)) {
+                new File(name).delete();
+            }
+        }
+        index.store();
     }
 
     /** Creates a branch with name NAME. */
     public static void branch(String name) throws IOException {
         isInitialized();
-        File branchDest = new File("./.gitlet/global/" + name);
-        if (branchDest.exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+        if (Refs.exists(name)) {
+            throw new GitletException(
+                "A branch with that name already exists.");
         }
         Repo dummy = new Repo("dummy");
         Branch cur = dummy.getCurrent();
@@ -455,32 +479,38 @@ public class Main {
         isInitialized();
         if ((args.length < 2)
             || (args[1].trim().equals(""))) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         } else if (args.length > 2) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         } else {
             Repo views = new Repo("dummy");
             Branch current = views.getCurrent();
             current.commit(args[1]);
             current.store();
-            System.exit(0);
         }
     }
 
+    /** Parses ARGS and packs the repository's objects, building the
+    message index too if the repository has none. */
+    public static void gc(String... args) {
+        isInitialized();
+        if (args.length > 1) {
+            throw new GitletException("Incorrect operands.");
+        }
+        MessageIndex.build();
+        System.out.println(Pack.repack());
+    }
+
     /** Removes the branch with name BRANCHTORM. */
     public static void rembranch(String branchtoRm) {
         Repo r1 = new Repo("dummy");
-        File target = new File("./.gitlet/global/" + branchtoRm);
-        if (!target.exists()) {
-            System.out.println(
+        if (!Refs.exists(branchtoRm)) {
+            throw new GitletException(
                 "A branch with that name does not exist.");
-            System.exit(0);
         } else if (branchtoRm.equals(r1.getCurrent().getName())) {
             System.out.println("Cannot remove the current branch.");
         } else {
-            target.delete();
+            Refs.delete(branchtoRm, Refs.read(branchtoRm));
         }
         r1.getCurrent().store();
     }
@@ -490,35 +520,21 @@ public class Main {
         isInitialized();
         twoParse(args);
         Repo rp = new Repo("dummy");
-        String typable = rp.getCurrent().typableHash();
-        String currentBranchName = rp.getCurrent().getName();
-        rm(args[1], typable, currentBranchName);
+        Index index = Index.load();
+        rm(args[1], treeOf(rp.getCurrent().getSHA()), index);
+        index.store();
         rp.getCurrent().store();
     }
 
-    /** Untracks and/or unstages FILE from commit TYPABLE on branch
-    CURRENTBRANCHNAME. */
-    public static void rm(
-        String file, String typable, String currentBranchName) {
+    /** Untracks and/or unstages FILE from INDEX, where HEAD is the tree
+    of the current commit. */
+    public static void rm(String file, Tree head, Index index) {
         File toRmWorking = new File(file);
-        File toRm = new File(
-            "./.gitlet/versions/" + typable + "/" + file);
-        File toRmStaged = new File("./.gitlet/stage/" + file);
-        String placeholder = "This file is untracked";
-        byte[] place = placeholder.getBytes();
-        File untrack =
-            new File("./.gitlet/untracked/" + currentBranchName + "/" + file);
-        if (toRm.exists()) {
-            Utils.writeContents(untrack, place);
-            if (toRmStaged.exists()) {
-                toRmStaged.delete();
-            }
+        if (head.contains(file)) {
+            index.remove(file);
             toRmWorking.delete();
-        } else if (toRmStaged.exists()) {
-            File untold = new File(
-                "./.gitlet/untold/" + currentBranchName + "/" + file);
-            Utils.writeContents(untold, place);
-            toRmStaged.delete();
+        } else if (index.contains(file)) {
+            index.remove(file);
         } else {
             System.out.println("No reason to remove the file.");
         }
@@ -530,205 +546,256 @@ public class Main {
     }
 
     /** Prints info about branches, staged/unstaged files, removed files,
-    and untracked files. */
+    and untracked files. Files whose stat data have changed but whose
+    contents have not are refreshed in the index, so the next status
+    need not read them again; the index is written only if there are
+    such files, and then only if no other process holds its lock. */
     public static void status() {
         Repo repo = new Repo("");
         String current = repo.getCurrent().getName();
-        System.out.println("=== Branches ===");
-        printDir(new File("./.gitlet/global"), current);
-        System.out.println("=== Staged Files ===");
-        printDir(new File("./.gitlet/stage"), current);
-        System.out.println("=== Removed Files ===");
-        printDir(new File("./.gitlet/untracked/" + current), current);
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        System.out.println("");
-        System.out.println("=== Untracked Files ===");
-    }
-
-    /** Prints contents of a directory DIR. Prints a * by the file with
-    name CURRENTBRANCH. */
-    private static void printDir(File dir, String currentBranch) {
-        File[] list = dir.listFiles();
-        String[] listNames = new String[list.length];
-        for (int i = 0; i < list.length; i++) {
-            if (list[i].getName().equals(currentBranch)) {
-                listNames[i] = "*" + list[i].getName();
-            } else {
-                listNames[i] = list[i].getName();
+        Tree head = treeOf(repo.getCurrent().getSHA());
+        Index index = Index.load();
+        WorkTree work = WorkTree.scan(index, FsMonitor.query());
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(System.out, LOG_BUFFER), false);
+        out.println("=== Branches ===");
+        printDir(out, Refs.names(), current);
+        out.println("=== Staged Files ===");
+        for (String name: index.paths()) {
+            if (!index.get(name).equals(head.get(name))) {
+                out.println(name);
             }
         }
-        Arrays.parallelSort(listNames);
-        for (String s: listNames) {
-            System.out.println(s);
-        }
-        System.out.println("");
-    }
-
-    /** Prints the SHA-1 strings of all commits with message PATTERN. */
-    public static void find(String pattern) {
-        File meta = new File("./.gitlet/metadata");
-        File[] commits = meta.listFiles();
-        int i = 0;
-        for (File cd: commits) {
-            File[] c = cd.listFiles();
-            Commit sea = loadCommit(c[0]);
-            if (sea.message().equals(pattern)) {
-                System.out.println(sea.getHashed());
-                sea.store();
-                i += 1;
-                continue;
-            } else {
-                sea.store();
+        out.println("");
+        out.println("=== Removed Files ===");
+        for (String name: head.names()) {
+            if (!index.contains(name)) {
+                out.println(name);
             }
         }
-        if (i > 0) {
-            return;
+        out.println("");
+        out.println("=== Modifications Not Staged For Commit ===");
+        TreeMap<String, String> changed = new TreeMap<String, String>();
+        for (String name : work.modified()) {
+            changed.put(name, " (modified)");
+        }
+        for (String name : work.deleted()) {
+            changed.put(name, " (deleted)");
+        }
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            out.println(e.getKey() + e.getValue());
+        }
+        out.println("");
+        out.println("=== Untracked Files ===");
+        for (String name : work.untracked()) {
+            out.println(name);
+        }
+        out.println("");
+        out.flush();
+        List<String> stale = work.unchanged();
+        if (!stale.isEmpty()) {
+            for (String name : stale) {
+                index.refresh(name);
+            }
+            index.tryStoreIfIdle();
         }
-        System.out.println("Found no commit with that message.");
     }
 
-    /** Parses ARGS and prints the log for every branch. */
-    public static void globalog(String... args) {
-        isInitialized();
-        if (args.length > 1) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
-        }
-        File commits = new File("./.gitlet/metadata/");
-        File[] allCommits = commits.listFiles();
-        for (File c: allCommits) {
-            File[] pearl = c.listFiles();
-            Commit c1 = loadCommit(pearl[0]);
-            System.out.println("===");
-            System.out.println("Commit " + c1.getHashed());
-            System.out.println(c1.getTime());
-            System.out.println(c1.message());
-            c1.store();
-            System.out.println("");
-        }
-    }
-
-    /** Prints the log for branch CURRENT. */
-    public static void log(Branch current) {
-        String sep1 = "===";
-        LinkedList<String> history = current.getChained();
-        HashMap<String, Commit> getCommits = current.load();
-        String hash = current.getSHA();
-        while (hash != null) {
-            Commit c = getCommits.get(hash);
-            System.out.println(sep1);
-            System.out.println("Commit " + hash);
-            System.out.println(c.getTime());
-            System.out.println(c.message());
-            System.out.println("");
-            hash = c.parent();
-            c.store();
+    /** Prints the sorted NAMES to OUT. Prints a * by the name
+    CURRENTBRANCH. */
+    private static void printDir(PrintStream out, List<String> names,
+                                 String currentBranch) {
+        for (String s: names) {
+            if (s.equals(currentBranch)) {
+                out.println("*" + s);
+            } else {
+                out.println(s);
+            }
         }
-        current.store();
+        out.println("");
     }
 
-    /** Method to add files. Parses ARGS to get the filename to stage. */
-    public static void add(String... args) {
+    /** Parses the find command given by ARGS: "find MESSAGE" finds
+    commits with exactly that message, "find -w WORD..." those whose
+    message has all the given words, and "find -s TEXT" those whose
+    message contains TEXT. */
+    public static void findParse(String... args) {
         isInitialized();
-        Repo r = new Repo("");
-        String head = r.getCurrent().getSHA();
-        String type = r.getCurrent().typableHash();
-        if (args.length != 2) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
-        }
-
-        File filename = new File(args[1]);
-        if (!filename.exists()) {
-            System.err.println("File does not exist");
-            System.exit(0);
+        if (args.length == 2) {
+            find(MessageIndex.exact(args[1]));
+        } else if (args.length > 2 && args[1].equals("-w")) {
+            find(MessageIndex.words(
+                     Arrays.asList(args).subList(2, args.length)));
+        } else if (args.length == 3 && args[1].equals("-s")) {
+            find(MessageIndex.containing(args[2]));
+        } else {
+            throw new GitletException("Incorrect operands.");
         }
-        String filenameSHA = toSHA(filename);
-        String branchname = r.getCurrent().getName();
+    }
 
-        File a = new File(".gitlet/versions/" + type + "/" + args[1]);
-        if (a.exists()) {
-            String aSHA = toSHA(a);
-            if (aSHA.equals(filenameSHA)) {
-                addRemoved(filename, branchname);
-                return;
-            }
+    /** Prints the SHA-1 strings FOUND of the commits found by find. The
+    message index answers find without reading any commit. */
+    public static void find(List<String> found) {
+        StringBuilder out = new StringBuilder();
+        for (String id : found) {
+            out.append(id).append('\n');
         }
-
-        File folder = new File(".gitlet/stage");
-        File[] listofFiles = folder.listFiles();
-        addRemoved(filename, branchname);
-        if (listofFiles.length == 0) {
-            stage(filename);
+        if (found.isEmpty()) {
+            out.append("Found no commit with that message.\n");
         }
+        System.out.print(out);
+    }
 
-        for (File f: listofFiles) {
-            String fSHA = toSHA(f);
-            if (!fSHA.equals(filenameSHA)) {
-                stage(filename);
+    /** Parses ARGS and prints the log of every commit, latest added
+    first. The graph is in the order commits were added to it, which
+    need not be the order of their times, so commits made before the
+    --since limit are skipped rather than ending the walk. */
+    public static void globalog(String... args) {
+        isInitialized();
+        long[] limits = logLimits(args);
+        CommitGraph graph = CommitGraph.open();
+        printLog(graph, graph.size() - 1, pos -> pos - 1,
+                 limits[0], limits[1], false);
+    }
+
+    /** Prints the log for branch CURRENT: at most LIMIT commits, stopping
+    at the first made before SINCE, in seconds since the epoch. This
+    takes each commit to be made after its first parent, as it is unless
+    the clocks of the machines that made them disagree. */
+    public static void log(Branch current, long limit, long since) {
+        CommitGraph graph = CommitGraph.open();
+        printLog(graph, graph.lookup(current.getSHA()),
+                 pos -> graph.parent(pos, 0), limit, since, true);
+    }
+
+    /** Prints the log of the commits in GRAPH from position START on,
+    where NEXT gives the position of the commit following each one:
+    at most LIMIT commits, leaving out those made before SINCE. If
+    ORDERED, the walk visits commits in order of time, and so stops at
+    the first made before SINCE. The walk stays within the commit graph
+    and reads only the records of the commits printed; nothing is
+    written to disk. Output is gathered in one large buffer rather than
+    written a line at a time. */
+    private static void printLog(CommitGraph graph, int start,
+                                 IntUnaryOperator next, long limit,
+                                 long since, boolean ordered) {
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(System.out, LOG_BUFFER), false);
+        long count = 0;
+        for (int pos = start; pos != CommitGraph.NONE && count < limit;
+             pos = next.applyAsInt(pos)) {
+            if (graph.time(pos) < since) {
+                if (ordered) {
+                    break;
+                }
+                continue;
+            }
+            String hash = graph.id(pos);
+            Commit c = loadCommit(hash);
+            out.print("===\nCommit ");
+            out.print(hash);
+            out.print('\n');
+            out.print(c.getTime());
+            out.print('\n');
+            out.print(c.message());
+            out.print("\n\n");
+            count += 1;
+        }
+        out.flush();
+    }
+
+    /** Method to add files. Parses ARGS to get the files to stage: each
+    operand is a file, or a directory all of whose files are staged. */
+    public static void add(String... args) {
+        isInitialized();
+        if (args.length < 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        ArrayList<String> paths = new ArrayList<String>();
+        for (int i = 1; i < args.length; i += 1) {
+            Path operand = Paths.get(args[i]).normalize();
+            if (!Files.exists(operand)) {
+                throw new GitletException("File does not exist");
+            }
+            if (!Files.isDirectory(operand)) {
+                paths.add(operand.toString());
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(operand)) {
+                files.filter(p -> Files.isRegularFile(p))
+                    .filter(p -> !p.normalize().startsWith(".gitlet"))
+                    .forEach(p -> paths.add(p.normalize().toString()));
+            } catch (IOException excp) {
+                throw new GitletException("Could not read file. Sorry!");
             }
         }
-        r.getCurrent().store();
-    }
-
-    /** Stages file with name FILENAME. */
-    private static void stage(File filename) {
-        File f1 = new File("./.gitlet/stage/" + filename.getName());
-        Utils.writeContents(f1, Utils.readContents(filename));
-    }
-
-    /** If applicable, un-untracks a FILENNAME untracked by branch
-    BRANCHNAME. */
-    public static void addRemoved(File filename, String branchname) {
-        String bName = branchname;
-        File wasRemoved = new File(
-            "./.gitlet/untracked/" + bName + "/" + filename.getName());
-        if (wasRemoved.exists()) {
-            wasRemoved.delete();
+        if (paths.isEmpty()) {
             return;
         }
+        Index index = Index.load();
+        index.addAll(paths);
+        index.store();
     }
 
     /** Serializing utilities. */
 
     /** Returns the SHA-1 string for FILE. */
     public static String toSHA(File file) {
-        byte[] bites = Utils.readContents(file);
-        return Utils.sha1(bites);
+        return Utils.sha1(file, null);
     }
 
-    /** Returns the branch object serialized in file F. */
-    public static Branch loadBranch(File f) {
-        Branch br = null;
-        try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(f));
-            br = (Branch) in.readObject();
-            in.close();
-        } catch (ClassNotFoundException excp) {
-            System.out.println("Bad input file");
-            System.exit(0);
-        } catch (IOException e) {
-            System.out.println(
-                "Bad input. Encase multiple word names in quotes.");
-            System.exit(0);
+    /** Returns the commit whose SHA-1 string begins with ID, or null if
+    there is none. ID may be any unique abbreviation of at least
+    IdIndex.MIN_ABBREV characters; it is resolved through the id index. */
+    public static Commit findCommit(String id) {
+        if (id == null) {
+            return null;
+        }
+        Commit cached = COMMITS.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        String full = IdIndex.resolve(id);
+        if (full == null) {
+            return null;
+        }
+        Commit commit = loadCommit(full);
+        if (commit != null) {
+            COMMITS.put(full, commit);
         }
-        return br;
+        return commit;
     }
 
-    /** Returns a commit object serialized in file F. */
-    public static Commit loadCommit(File f) {
+    /** Returns the tree of files tracked by the commit whose SHA-1 string
+    begins with ID. */
+    static Tree treeOf(String id) {
+        return Tree.load(findCommit(id).getTree());
+    }
+
+    /** Returns the commit object with full SHA-1 string ID. */
+    public static Commit loadCommit(String id) {
         Commit see = null;
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(f));
-            see = (Commit) in.readObject();
-            in.close();
-        } catch (ClassNotFoundException excp) {
-            System.out.println("Bad input file");
-        } catch (IOException e) {
+            see = Commit.decode(
+                id, Utils.readContents(FanOut.file(Commit.METADATA, id)));
+        } catch (IllegalArgumentException excp) {
             System.out.println("Bad input.");
         }
         return see;
     }
+
+    /** Size of the buffer log output is gathered in. */
+    private static final int LOG_BUFFER = 1 << 16;
+    /** Returned by choices for a file left with conflict markers; never
+     *  a blob id. */
+    private static final String CONFLICTED = "conflicted";
+    /** Length of a date without a time of day. */
+    private static final int SHORT_DATE = 10;
+    /** Format of the dates given to --since. */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** Commits already read, by full SHA-1 string. */
+    private static final Cache<String, Commit> COMMITS =
+        new Cache<String, Commit>(1 << 16, c -> 1);
 }
@@ -0,0 +1,581 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/** The commit message index, which lets find answer queries without
+ *  reading any commit records.
+ *
+ *  .gitlet/messages holds one entry per commit, in the order the commits
+ *  were made: the commit's 20-byte id, the length of its message as an
+ *  int, and the message's UTF-8 bytes. Postings map keys to the offsets
+ *  of those entries: each message has one key for its exact text and one
+ *  for each distinct word in it, and a key is stored as a 64-bit hash.
+ *  Postings are kept sorted by hash in .gitlet/message-index (a 16-byte
+ *  header followed by 16-byte records: hash, then offset), which is
+ *  memory-mapped and searched by bisection; new postings are appended to
+ *  .gitlet/message-index.log and merged into the sorted file once there
+ *  are LOG_LIMIT of them. Since hashes may collide, every candidate is
+ *  checked against its message. .gitlet/message-words lists every word
+ *  posted, one per line, so that a search for part of a word need only
+ *  look through the words.
+ *
+ *  The index is written only by commits and by gc, which build it if it
+ *  is missing, as in a repository made before it existed. Queries never
+ *  write: without an index they read every commit instead.
+ *  @author Theo Joseph
+ */
+class MessageIndex implements AutoCloseable {
+
+    /** The file holding the message of every commit. */
+    static final File MESSAGES = new File("./.gitlet/messages");
+    /** The file holding the sorted postings. */
+    static final File POSTINGS = new File("./.gitlet/message-index");
+    /** The file holding recently added postings. */
+    static final File LOG = new File("./.gitlet/message-index.log");
+    /** The file holding the words posted. */
+    static final File WORDS = new File("./.gitlet/message-words");
+
+    /** Adds commit C to the index, unless it is there already: an index
+     *  built because there was none may hold C, and a commit may be made
+     *  again with the same tree, parents, message and time. Writers hold
+     *  the lock on MESSAGES, so that entries from different processes
+     *  never interleave. */
+    static void add(Commit c) {
+        LockFile lock = new LockFile(MESSAGES);
+        try {
+            if (!built()) {
+                rebuild();
+            }
+            List<String> fresh = new ArrayList<String>();
+            MessageIndex index = open();
+            try {
+                if (index.exactly(c.message()).contains(c.getHashed())) {
+                    return;
+                }
+                for (String word : tokens(c.message())) {
+                    if (index.postings(wordKey(word)).length == 0) {
+                        fresh.add(word);
+                    }
+                }
+            } finally {
+                index.close();
+            }
+            append(c);
+            addWords(fresh);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Builds the index, under the lock on MESSAGES, if there is none. */
+    static void build() {
+        if (!built()) {
+            LockFile lock = new LockFile(MESSAGES);
+            try {
+                if (!built()) {
+                    rebuild();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /** Returns true iff the index has been built. WORDS is written last
+     *  when it is, so a reader never sees a half-built index. */
+    private static boolean built() {
+        return WORDS.exists() && MESSAGES.exists();
+    }
+
+    /** Appends the entry and postings for commit C. */
+    private static void append(Commit c) {
+        long offset = MESSAGES.length();
+        byte[] msg = c.message().getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(MESSAGES, true)))) {
+            out.write(Utils.toBytes(c.getHashed()));
+            out.writeInt(msg.length);
+            out.write(msg);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(LOG, true)))) {
+            for (long key : keys(c.message())) {
+                out.writeLong(key);
+                out.writeLong(offset);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(MESSAGES);
+        Durability.written(LOG);
+        if (LOG.length() >= (long) LOG_LIMIT * RECORD) {
+            compact();
+        }
+    }
+
+    /** Appends each of WORDS to the word list, creating it if need
+     *  be. */
+    private static void addWords(Collection<String> words) {
+        try (Writer out = new OutputStreamWriter(
+                 new BufferedOutputStream(new FileOutputStream(WORDS, true)),
+                 StandardCharsets.UTF_8)) {
+            for (String word : words) {
+                out.write(word);
+                out.write('\n');
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(WORDS);
+    }
+
+    /** Returns the ids of the commits whose message is exactly MESSAGE,
+     *  in the order they were made. */
+    static List<String> exact(String message) {
+        if (!built()) {
+            return scan(msg -> msg.equals(message));
+        }
+        MessageIndex index = open();
+        try {
+            return index.exactly(message);
+        } finally {
+            index.close();
+        }
+    }
+
+    /** Returns the ids of the commits in this index whose message is
+     *  exactly MESSAGE, in the order they were made. */
+    private List<String> exactly(String message) {
+        List<String> result = new ArrayList<String>();
+        for (long offset : postings(exactKey(message))) {
+            entry(offset, (id, msg) -> {
+                if (msg.equals(message)) {
+                    result.add(id);
+                }
+            });
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message contains every word
+     *  in WORDS, ignoring case, in the order they were made. */
+    static List<String> words(List<String> words) {
+        List<String> result = new ArrayList<String>();
+        Set<String> wanted = new LinkedHashSet<String>();
+        for (String word : words) {
+            wanted.addAll(tokens(word));
+        }
+        if (wanted.isEmpty()) {
+            return result;
+        } else if (!built()) {
+            return scan(msg -> tokens(msg).containsAll(wanted));
+        }
+        MessageIndex index = open();
+        try {
+            List<long[]> lists = new ArrayList<long[]>();
+            for (String word : wanted) {
+                lists.add(index.postings(wordKey(word)));
+            }
+            lists.sort((a, b) -> Integer.compare(a.length, b.length));
+            long[] candidates = lists.get(0);
+            for (long[] list : lists.subList(1, lists.size())) {
+                int n = 0;
+                for (long offset : candidates) {
+                    if (Arrays.binarySearch(list, offset) >= 0) {
+                        candidates[n++] = offset;
+                    }
+                }
+                candidates = Arrays.copyOf(candidates, n);
+            }
+            for (long offset : candidates) {
+                index.entry(offset, (id, msg) -> {
+                    if (tokens(msg).containsAll(wanted)) {
+                        result.add(id);
+                    }
+                });
+            }
+        } finally {
+            index.close();
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT, in the
+     *  order they were made. If TEXT is part of a single word, only the
+     *  entries posted under the words containing it are read; otherwise
+     *  the message file is read in one sequential pass. */
+    static List<String> containing(String text) {
+        if (!built()) {
+            return scan(msg -> msg.contains(text));
+        }
+        Set<String> token = tokens(text);
+        if (token.size() != 1
+            || text.length() != token.iterator().next().length()) {
+            return search(text);
+        }
+        String part = token.iterator().next();
+        List<String> result = new ArrayList<String>();
+        MessageIndex index = open();
+        try {
+            long[] candidates = new long[0];
+            for (String word : Files.readAllLines(WORDS.toPath(),
+                                                  StandardCharsets.UTF_8)) {
+                if (word.contains(part)) {
+                    long[] list = index.postings(wordKey(word));
+                    int n = candidates.length;
+                    candidates = Arrays.copyOf(candidates, n + list.length);
+                    System.arraycopy(list, 0, candidates, n, list.length);
+                }
+            }
+            Arrays.sort(candidates);
+            long last = -1;
+            for (long offset : candidates) {
+                if (offset != last) {
+                    index.entry(offset, (id, msg) -> {
+                        if (msg.contains(text)) {
+                            result.add(id);
+                        }
+                    });
+                }
+                last = offset;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            index.close();
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT, in the
+     *  order they were made, reading the whole message file. */
+    private static List<String> search(String text) {
+        List<String> result = new ArrayList<String>();
+        byte[] id = new byte[Utils.UID_BYTES];
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(MESSAGES),
+                                         BUFFER_SIZE))) {
+            while (true) {
+                in.readFully(id);
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                String msg = new String(data, StandardCharsets.UTF_8);
+                if (msg.contains(text)) {
+                    result.add(Utils.toHex(id));
+                }
+            }
+        } catch (EOFException excp) {
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the commits, in the order they were made, whose
+     *  messages satisfy TEST, reading every commit. Used when there is
+     *  no index, which a query does not build. */
+    private static List<String> scan(Predicate<String> test) {
+        List<String> result = new ArrayList<String>();
+        CommitGraph graph = CommitGraph.open();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            String id = graph.id(pos);
+            if (test.test(Main.findCommit(id).message())) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** An index over the sorted postings in MAIN and the unsorted postings
+     *  in LOGGED, whose messages are read through ENTRIES. */
+    private MessageIndex(ByteBuffer main, ByteBuffer logged,
+                         FileChannel entries) {
+        _main = main;
+        _log = logged;
+        _entries = entries;
+        _count = main.capacity() < HEADER ? 0 : main.getInt(COUNT);
+    }
+
+    /** Returns the index as stored on disk, which must have been
+     *  built. */
+    private static MessageIndex open() {
+        try {
+            return new MessageIndex(map(POSTINGS), map(LOG),
+                                    FileChannel.open(MESSAGES.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the message file. */
+    @Override
+    public void close() {
+        try {
+            _entries.close();
+        } catch (IOException excp) {
+            /* Only read from; nothing can be lost. */
+        }
+    }
+
+    /** Writes an index of every commit in the commit graph. WORDS is
+     *  removed first and written last, so readers scan the commits
+     *  meanwhile. */
+    private static void rebuild() {
+        WORDS.delete();
+        try {
+            Files.write(MESSAGES.toPath(), new byte[0]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        POSTINGS.delete();
+        LOG.delete();
+        CommitGraph graph = CommitGraph.open();
+        Set<String> words = new LinkedHashSet<String>();
+        try {
+            for (int pos = 0; pos < graph.size(); pos += 1) {
+                Commit c = Main.findCommit(graph.id(pos));
+                append(c);
+                words.addAll(tokens(c.message()));
+            }
+            addWords(words);
+        } catch (RuntimeException excp) {
+            WORDS.delete();
+            MESSAGES.delete();
+            POSTINGS.delete();
+            LOG.delete();
+            throw excp;
+        }
+    }
+
+    /** Merges the log into the sorted file, dropping repeated postings,
+     *  and deletes it. A reader between the two steps, or any reader
+     *  after a crash between them, finds the logged postings in both
+     *  files; postings allows for that. */
+    private static void compact() {
+        ByteBuffer main = map(POSTINGS), logged = map(LOG);
+        int count = main.capacity() < HEADER ? 0 : main.getInt(COUNT);
+        long[][] records = new long[count + logged.limit() / RECORD][];
+        int n = 0;
+        for (int k = 0; k < count; k += 1) {
+            records[n++] = record(main, HEADER + k * RECORD);
+        }
+        for (int off = 0; off < logged.limit(); off += RECORD) {
+            records[n++] = record(logged, off);
+        }
+        Arrays.sort(records, (a, b) -> a[0] != b[0]
+                    ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int unique = 0;
+        for (long[] rec : records) {
+            if (unique == 0 || rec[0] != records[unique - 1][0]
+                || rec[1] != records[unique - 1][1]) {
+                records[unique++] = rec;
+            }
+        }
+        File tmp = new File(POSTINGS.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(unique);
+            out.writeInt(0);
+            for (long[] rec : Arrays.asList(records).subList(0, unique)) {
+                out.writeLong(rec[0]);
+                out.writeLong(rec[1]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), POSTINGS.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(POSTINGS);
+        LOG.delete();
+    }
+
+    /** Returns the distinct offsets of the entries posted under KEY, in
+     *  increasing order. */
+    private long[] postings(long key) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_main.getLong(HEADER + mid * RECORD) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < _count && _main.getLong(HEADER + end * RECORD) == key) {
+            end += 1;
+        }
+        long[] result = new long[end - lo + _log.limit() / RECORD];
+        int n = 0;
+        for (int k = lo; k < end; k += 1) {
+            result[n++] = _main.getLong(HEADER + k * RECORD + 8);
+        }
+        for (int off = 0; off + RECORD <= _log.limit(); off += RECORD) {
+            if (_log.getLong(off) == key) {
+                result[n++] = _log.getLong(off + 8);
+            }
+        }
+        Arrays.sort(result, 0, n);
+        int unique = 0;
+        for (int k = 0; k < n; k += 1) {
+            if (unique == 0 || result[k] != result[unique - 1]) {
+                result[unique++] = result[k];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    /** Calls ACTION on the id and message of the entry at OFFSET. */
+    private void entry(long offset, BiConsumer<String, String> action) {
+        ByteBuffer head = read(offset, Utils.UID_BYTES + 4);
+        byte[] id = new byte[Utils.UID_BYTES];
+        head.get(id);
+        ByteBuffer msg = read(offset + head.capacity(), head.getInt());
+        action.accept(Utils.toHex(id),
+                      new String(msg.array(), StandardCharsets.UTF_8));
+    }
+
+    /** Returns the LENGTH bytes of the message file at OFFSET. */
+    private ByteBuffer read(long offset, int length) {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try {
+            while (buf.hasRemaining()) {
+                if (_entries.read(buf, offset + buf.position()) < 0) {
+                    throw new IllegalArgumentException(
+                        "truncated message index");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** Returns the posting at OFF in BUF as {hash, offset}. */
+    private static long[] record(ByteBuffer buf, int off) {
+        return new long[] {buf.getLong(off), buf.getLong(off + 8)};
+    }
+
+    /** Returns the keys under which a commit with message MESSAGE is
+     *  posted. */
+    private static List<Long> keys(String message) {
+        List<Long> keys = new ArrayList<Long>();
+        keys.add(exactKey(message));
+        for (String token : tokens(message)) {
+            keys.add(wordKey(token));
+        }
+        return keys;
+    }
+
+    /** Returns the distinct words of TEXT, in lower case. */
+    private static Set<String> tokens(String text) {
+        Set<String> result = new LinkedHashSet<String>();
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the key for messages that are exactly MESSAGE. */
+    private static long exactKey(String message) {
+        return hash("=" + message);
+    }
+
+    /** Returns the key for messages containing the word WORD. */
+    private static long wordKey(String word) {
+        return hash("#" + word.toLowerCase());
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the UTF-8 bytes of S. */
+    private static long hash(String s) {
+        long h = FNV_OFFSET;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** Returns the contents of FILE mapped into memory, or an empty
+     *  buffer if there is no such file. Postings are addressed by int,
+     *  so a file too long for that is refused rather than misread. */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE - RECORD) {
+                throw new IllegalArgumentException(
+                    file.getPath() + " is too large");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Marks the start of the sorted postings file ("MIDX"). */
+    private static final int MAGIC = 0x4d494458;
+    /** Version of the sorted postings file format. */
+    private static final int VERSION = 1;
+    /** Length of the header. */
+    private static final int HEADER = 16;
+    /** Offset of the record count in the header. */
+    private static final int COUNT = 8;
+    /** Length of a posting. */
+    private static final int RECORD = 16;
+    /** Number of logged postings that triggers a merge. */
+    private static final int LOG_LIMIT = 4096;
+    /** Size of the buffer used to scan MESSAGES. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** FNV-1a offset basis. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The mapped sorted postings. */
+    private final ByteBuffer _main;
+    /** The mapped posting log. */
+    private final ByteBuffer _log;
+    /** The message entries, open for reading. */
+    private final FileChannel _entries;
+    /** Number of sorted postings. */
+    private final int _count;
+}
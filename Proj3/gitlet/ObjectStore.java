@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/** The content-addressed object store. Every blob and tree manifest is
+ *  kept exactly once under .gitlet/objects, in a file named by the SHA-1
+ *  of its contents, so a commit costs space proportional to what changed
+ *  rather than to the size of the tracked tree.
+ *  @author Theo Joseph
+ */
+class ObjectStore {
+
+    /** Directory holding all loose objects, in fan-out subdirectories. */
+    static final File OBJECTS = new File("./.gitlet/objects");
+
+    /** Stores the contents of FILE, unless an identical object is already
+     *  present, and returns the id of the resulting blob. Files larger
+     *  than a stream buffer are hashed and copied in one streaming pass,
+     *  so they are never held in memory whole. */
+    static String put(File file) {
+        if (file.length() <= Utils.STREAM_BUFFER_SIZE) {
+            return put(Utils.readContents(file));
+        }
+        File temp;
+        try {
+            temp = File.createTempFile("tmp-", null, OBJECTS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.sha1(file, temp);
+        File object = FanOut.fileForWrite(OBJECTS, id);
+        if (contains(id)
+            || !(temp.renameTo(object)
+                 || FanOut.retry(object) && temp.renameTo(object))) {
+            temp.delete();
+        } else {
+            Durability.written(object);
+        }
+        return id;
+    }
+
+    /** Stores CONTENTS, unless an identical object is already present,
+     *  and returns its id. */
+    static String put(byte[] contents) {
+        String id = Utils.sha1(contents);
+        if (!contains(id)) {
+            LockFile.writeAtomically(FanOut.fileForWrite(OBJECTS, id),
+                                     contents);
+        }
+        return id;
+    }
+
+    /** Returns true iff an object with id ID is in the store, either
+     *  loose or in a pack. On a miss the packs are looked for again, in
+     *  case a concurrent repack has just packed the object. */
+    static boolean contains(String id) {
+        if (stored(id)) {
+            return true;
+        }
+        Pack.reset();
+        return stored(id);
+    }
+
+    /** Returns true iff the object with id ID is loose or in one of the
+     *  packs last found. */
+    private static boolean stored(String id) {
+        if (file(id).isFile()) {
+            return true;
+        }
+        for (Pack pack : Pack.all()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the contents of the object with id ID. Throws
+     *  IllegalArgumentException if there is no such object. As in
+     *  contains, the packs are looked for again before giving up. */
+    static byte[] read(String id) {
+        byte[] contents = BLOBS.get(id);
+        if (contents != null) {
+            return contents;
+        }
+        contents = find(id);
+        if (contents == null) {
+            Pack.reset();
+            contents = find(id);
+        }
+        if (contents == null) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        BLOBS.put(id, contents);
+        return contents;
+    }
+
+    /** Returns the contents of the object with id ID, loose or in one of
+     *  the packs last found, or null if it is in neither. A loose copy
+     *  removed by a repack while it is read is taken as absent. */
+    private static byte[] find(String id) {
+        File loose = file(id);
+        if (loose.isFile()) {
+            try {
+                return Files.readAllBytes(loose.toPath());
+            } catch (NoSuchFileException excp) {
+                /* Packed meanwhile; look in the packs. */
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Pack pack : Pack.all()) {
+            byte[] contents = pack.read(id);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /** Overwrites DEST with the contents of the blob with id ID, creating
+     *  its directory if need be. Loose objects are never read into memory:
+     *  they are hard-linked when checkout.mode is "link" and otherwise
+     *  copied with FileChannel.transferTo. Packed objects are inflated
+     *  and written, as are loose objects that a concurrent repack removes
+     *  before they can be copied. DEST is always replaced rather than
+     *  written over, as it may be a link to another object. */
+    static void checkout(String id, File dest) {
+        File parent = dest.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try {
+            Files.deleteIfExists(dest.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File loose = file(id);
+        if (!loose.isFile()
+            || !(Config.get(Config.CHECKOUT_MODE).equals("link")
+                 && link(loose, dest) || transfer(loose, dest))) {
+            Utils.writeContents(dest, read(id));
+        }
+    }
+
+    /** Makes DEST a read-only hard link to the loose object LOOSE,
+     *  returning false if the file system cannot link them. The object
+     *  is made read-only too, since the two now share their contents. */
+    private static boolean link(File loose, File dest) {
+        try {
+            loose.setReadOnly();
+            Files.createLink(dest.toPath(), loose.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Overwrites DEST with the contents of SOURCE, leaving the copying
+     *  to the file system where it can. Returns false if SOURCE is
+     *  gone. */
+    private static boolean transfer(File source, File dest) {
+        try (FileChannel in = FileChannel.open(source.toPath());
+             FileChannel out = FileChannel.open(
+                 dest.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += in.transferTo(done, size - done, out);
+            }
+            return true;
+        } catch (NoSuchFileException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the loose copy of the object with id ID, or
+     *  0 if there is none. */
+    static long looseLength(String id) {
+        return file(id).length();
+    }
+
+    /** Deletes the loose copy of the object with id ID, which must also be
+     *  in a pack. */
+    static void removeLoose(String id) {
+        file(id).delete();
+    }
+
+    /** Contents of objects already read, by id. */
+    private static final Cache<String, byte[]> BLOBS =
+        new Cache<String, byte[]>(64 << 20, b -> b.length);
+
+    /** Returns the file holding the object with id ID. */
+    private static File file(String id) {
+        return FanOut.file(OBJECTS, id);
+    }
+
+}
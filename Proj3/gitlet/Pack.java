@@ -0,0 +1,616 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A packfile: many objects stored in one file, each compressed with
+ *  Deflater and, where a similar object precedes it, stored as a delta
+ *  against that object. Each .pack file in .gitlet/pack has a matching
+ *  .idx file listing its object ids in sorted order with the offsets of
+ *  their entries; the index is memory-mapped and binary-searched, and the
+ *  pack itself is read with positioned reads, so fetching one object
+ *  touches only the entries on its delta chain.
+ *
+ *  A pack entry is a type byte (WHOLE or DELTA), the length of the object
+ *  and the length of the stored bytes as varints, for a delta the offset
+ *  of its base entry as 8 bytes, and then the deflated data. A delta is a
+ *  sequence of COPY instructions (offset and length in the base, as
+ *  varints) and INSERT instructions (a varint length and literal bytes).
+ *  @author Theo Joseph
+ */
+class Pack {
+
+    /** Directory holding packs and their indices. */
+    static final File PACKS = new File("./.gitlet/pack");
+
+    /** The pack in PACK, indexed by IDX. */
+    private Pack(File pack, File idx) throws IOException {
+        _file = pack;
+        try (RandomAccessFile in = new RandomAccessFile(idx, "r")) {
+            FileChannel channel = in.getChannel();
+            _idx = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        }
+        if (_idx.getInt(0) != IDX_MAGIC) {
+            throw new IllegalArgumentException("corrupt pack index");
+        }
+        _count = _idx.getInt(8);
+        _pack = FileChannel.open(pack.toPath(), StandardOpenOption.READ);
+    }
+
+    /** Returns all packs in the repository. The pack directory is listed
+     *  on every call, and the packs are found again whenever the listing
+     *  differs from the last, keeping those still present open. A
+     *  modification time would be cheaper to check, but may not change
+     *  when a repack falls within the same tick of the file system's
+     *  clock, leaving a daemon with packs that are gone. */
+    static List<Pack> all() {
+        String[] names = PACKS.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        Arrays.sort(names);
+        if (_packs == null || !Arrays.equals(names, _names)) {
+            _packs = scan(_packs == null ? new ArrayList<Pack>() : _packs,
+                          names);
+            _names = names;
+        }
+        return _packs;
+    }
+
+    /** Returns the packs among NAMES, the sorted contents of PACKS,
+     *  reusing those in OLD that are still there and closing the rest. A
+     *  pack removed by a concurrent repack while it is being opened is
+     *  skipped. */
+    private static List<Pack> scan(List<Pack> old, String[] names) {
+        HashMap<File, Pack> open = new HashMap<File, Pack>();
+        for (Pack pack : old) {
+            open.put(pack._file, pack);
+        }
+        ArrayList<Pack> packs = new ArrayList<Pack>();
+        for (String name : names) {
+            if (name.endsWith(".pack")) {
+                File f = new File(PACKS, name);
+                Pack pack = open.remove(f);
+                if (pack == null) {
+                    File idx = new File(PACKS, name.substring(
+                        0, name.length() - ".pack".length()) + ".idx");
+                    try {
+                        pack = new Pack(f, idx);
+                    } catch (IOException excp) {
+                        if (f.isFile() && idx.isFile()) {
+                            throw new IllegalArgumentException(
+                                excp.getMessage());
+                        }
+                        continue;
+                    }
+                }
+                packs.add(pack);
+            }
+        }
+        for (Pack pack : open.values()) {
+            pack.close();
+        }
+        return packs;
+    }
+
+    /** Makes the next call of all() look for the packs again, as after
+     *  an object has not been found in any of them. */
+    static void reset() {
+        _names = null;
+    }
+
+    /** Closes this pack's file. */
+    private void close() {
+        try {
+            _pack.close();
+        } catch (IOException excp) {
+            /* Only read from; nothing can be lost. */
+        }
+    }
+
+    /** Returns true iff this pack holds the object with id ID. */
+    boolean contains(String id) {
+        return find(Utils.toBytes(id)) >= 0;
+    }
+
+    /** Returns the contents of the object with id ID, or null if it is
+     *  not in this pack. */
+    byte[] read(String id) {
+        long offset = find(Utils.toBytes(id));
+        if (offset < 0) {
+            return null;
+        }
+        try {
+            return readAt(_pack, offset);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the offset in the pack of the entry for the object whose
+     *  id is the bytes KEY, or -1 if there is none. */
+    private long find(byte[] key) {
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int base = IDX_HEADER + mid * IDX_RECORD;
+            int cmp = 0;
+            for (int i = 0; i < Utils.UID_BYTES && cmp == 0; i += 1) {
+                cmp = Integer.compare(_idx.get(base + i) & 0xff,
+                                      key[i] & 0xff);
+            }
+            if (cmp == 0) {
+                return _idx.getLong(base + Utils.UID_BYTES);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the object whose entry is at OFFSET in the pack read
+     *  through CHANNEL. */
+    private static byte[] readAt(FileChannel channel, long offset)
+        throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(MAX_ENTRY_HEADER);
+        channel.read(head, offset);
+        head.flip();
+        byte type = head.get();
+        int size = (int) getVarint(head);
+        int stored = (int) getVarint(head);
+        long base = type == DELTA ? head.getLong() : 0;
+        ByteBuffer data = ByteBuffer.allocate(stored);
+        long pos = offset + head.position();
+        while (data.hasRemaining()) {
+            if (channel.read(data, pos + data.position()) < 0) {
+                throw new IOException("truncated pack");
+            }
+        }
+        if (type == WHOLE) {
+            return inflate(data.array(), size);
+        }
+        byte[] delta = inflate(data.array(), size);
+        return applyDelta(readAt(channel, base), delta);
+    }
+
+    /** Packs every object reachable from any commit into a single new pack,
+     *  storing versions of the same file as deltas against one another
+     *  where that saves space, then deletes any older packs, the loose
+     *  objects that the new pack holds, found by streaming the object
+     *  directories, and the fan-out directories they leave empty.
+     *  Returns a summary line for the user. The whole repack holds the
+     *  lock on PACKS, so two repacks never delete each other's packs; a
+     *  reader that misses an object it was about to read, as its loose
+     *  copy or old pack is removed, finds it by looking again. */
+    static String repack() {
+        LockFile lock = new LockFile(PACKS);
+        try {
+            return repackLocked();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Performs repack, holding the lock on PACKS. */
+    private static String repackLocked() {
+        LinkedHashMap<String, List<String>> groups =
+            new LinkedHashMap<String, List<String>>();
+        HashSet<String> seen = new HashSet<String>();
+        HashSet<String> big = new HashSet<String>();
+        CommitGraph graph = CommitGraph.open();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            String tree = Main.findCommit(graph.id(pos)).getTree();
+            if (!seen.add(tree)) {
+                continue;
+            }
+            group(groups, "", tree);
+            Tree files = Tree.load(tree);
+            for (String name : files.names()) {
+                String blob = files.get(name);
+                if (!seen.add(blob)) {
+                    continue;
+                } else if (ObjectStore.looseLength(blob) > MAX_PACKED_SIZE) {
+                    big.add(blob);
+                } else {
+                    group(groups, name, blob);
+                }
+            }
+        }
+        ArrayList<byte[]> ids = new ArrayList<byte[]>();
+        ArrayList<Long> offsets = new ArrayList<Long>();
+        int deltas = 0;
+        PACKS.mkdir();
+        File tmp = new File(PACKS, "tmp-pack");
+        String name;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            CountingStream counter = new CountingStream(
+                new DigestOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)), md));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(seen.size() - big.size());
+            for (List<String> versions : groups.values()) {
+                byte[] prev = null;
+                long prevOffset = 0;
+                int depth = 0;
+                for (String id : versions) {
+                    byte[] contents = ObjectStore.read(id);
+                    long offset = counter.count();
+                    ids.add(Utils.toBytes(id));
+                    offsets.add(offset);
+                    byte[] delta = null;
+                    if (prev != null && depth < MAX_DEPTH
+                        && contents.length <= MAX_DELTA_SIZE) {
+                        delta = delta(prev, contents);
+                        if (delta.length > contents.length / 2) {
+                            delta = null;
+                        }
+                    }
+                    if (delta == null) {
+                        writeEntry(out, WHOLE, contents, 0);
+                        depth = 0;
+                    } else {
+                        writeEntry(out, DELTA, delta, prevOffset);
+                        depth += 1;
+                        deltas += 1;
+                    }
+                    prev = contents;
+                    prevOffset = offset;
+                }
+            }
+            out.close();
+            name = "pack-" + Utils.toHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File pack = new File(PACKS, name + ".pack");
+        File idx = new File(PACKS, name + ".idx");
+        writeIndex(idx, ids, offsets);
+        try {
+            Files.move(tmp.toPath(), pack.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(idx);
+        Durability.written(pack);
+        Durability.flush();
+        for (Pack old : all()) {
+            if (!old._file.equals(pack)) {
+                String oldName = old._file.getName();
+                old.close();
+                old._file.delete();
+                new File(PACKS, oldName.replace(".pack", ".idx")).delete();
+            }
+        }
+        reset();
+        for (Pack packed : all()) {
+            if (packed._file.equals(pack)) {
+                FanOut.forEach(ObjectStore.OBJECTS, id -> {
+                    if (packed.contains(id)) {
+                        ObjectStore.removeLoose(id);
+                    }
+                });
+            }
+        }
+        FanOut.prune(ObjectStore.OBJECTS);
+        seen.removeAll(big);
+        return "Packed " + seen.size() + " objects, " + deltas
+            + " as deltas.";
+    }
+
+    /** Adds the object with id ID to the group of versions of the file
+     *  NAME in GROUPS, where trees have the empty name. */
+    private static void group(LinkedHashMap<String, List<String>> groups,
+                              String name, String id) {
+        List<String> versions = groups.get(name);
+        if (versions == null) {
+            versions = new ArrayList<String>();
+            groups.put(name, versions);
+        }
+        versions.add(id);
+    }
+
+    /** Writes to OUT a pack entry of type TYPE holding the deflated DATA,
+     *  with base entry at BASE if it is a delta. */
+    private static void writeEntry(DataOutputStream out, byte type,
+                                   byte[] data, long base)
+        throws IOException {
+        byte[] stored = deflate(data);
+        out.writeByte(type);
+        putVarint(out, data.length);
+        putVarint(out, stored.length);
+        if (type == DELTA) {
+            out.writeLong(base);
+        }
+        out.write(stored);
+    }
+
+    /** Writes to IDX an index of the objects with ids IDS whose entries
+     *  are at OFFSETS. */
+    private static void writeIndex(File idx, List<byte[]> ids,
+                                   List<Long> offsets) {
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Arrays.compareUnsigned(ids.get(a), ids.get(b));
+            }
+        });
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(idx)))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order.length);
+            for (int i : order) {
+                out.write(ids.get(i));
+                out.writeLong(offsets.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a delta that rebuilds TARGET from BASE. Every BLOCK-byte
+     *  block of BASE is indexed by a rolling hash; TARGET is scanned with
+     *  the same hash, and each verified match is extended as far as it
+     *  goes and emitted as a COPY, with the bytes between matches emitted
+     *  as INSERTs. */
+    static byte[] delta(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(h);
+            if (at != null && matches(base, at, target, i)) {
+                int len = BLOCK;
+                while (at + len < base.length && i + len < target.length
+                       && base[at + len] == target[i + len]) {
+                    len += 1;
+                }
+                insert(out, target, pending, i);
+                out.write(COPY);
+                putVarint(out, at);
+                putVarint(out, len);
+                i += len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * HIGH) * RADIX
+                        + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the object rebuilt by applying DELTA to BASE. */
+    static byte[] applyDelta(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == COPY) {
+                int at = (int) getVarint(in);
+                int len = (int) getVarint(in);
+                out.write(base, at, len);
+            } else {
+                int len = (int) getVarint(in);
+                out.write(delta, in.position(), len);
+                in.position(in.position() + len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Writes to OUT an INSERT of TARGET[START .. END), if non-empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int start, int end) {
+        if (start < end) {
+            out.write(INSERT);
+            putVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** Returns true iff the BLOCK bytes of A at I equal those of B at J. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j) {
+        return Arrays.equals(a, i, i + BLOCK, b, j, j + BLOCK);
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at I. */
+    private static int hash(byte[] data, int i) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * RADIX + (data[i + k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns DATA compressed with Deflater. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Returns the SIZE bytes obtained by inflating DATA. */
+    private static byte[] inflate(byte[] data, int size) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] result = new byte[size];
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                n += inflater.inflate(result, n, size - n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt pack entry");
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    /** Writes VALUE to OUT as a varint. */
+    private static void putVarint(OutputStream out, long value) {
+        try {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the varint read from IN. */
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** An output stream that counts the bytes written through it. */
+    private static class CountingStream extends FilterOutputStream {
+        /** A stream writing to OUT. */
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Returns the number of bytes written so far. */
+        long count() {
+            return _count;
+        }
+
+        /** Number of bytes written so far. */
+        private long _count;
+    }
+
+    /** Entry type of an object stored whole. */
+    private static final byte WHOLE = 0;
+    /** Entry type of an object stored as a delta. */
+    private static final byte DELTA = 1;
+    /** Delta instruction copying bytes from the base. */
+    private static final byte COPY = 0;
+    /** Delta instruction inserting literal bytes. */
+    private static final byte INSERT = 1;
+    /** Size of the blocks matched between base and target. */
+    private static final int BLOCK = 16;
+    /** Radix of the rolling hash. */
+    private static final int RADIX = 257;
+    /** RADIX to the power BLOCK - 1, for rolling the hash. */
+    private static final int HIGH;
+    static {
+        int h = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            h *= RADIX;
+        }
+        HIGH = h;
+    }
+    /** Longest chain of deltas allowed, which bounds the cost of a read. */
+    private static final int MAX_DEPTH = 10;
+    /** Largest object that is packed; bigger ones stay loose, since
+     *  packing needs the whole object in memory. */
+    private static final long MAX_PACKED_SIZE = 256 << 20;
+    /** Largest object for which a delta is attempted. */
+    private static final int MAX_DELTA_SIZE = 64 << 20;
+    /** Largest possible entry header. */
+    private static final int MAX_ENTRY_HEADER = 1 + 10 + 10 + 8;
+    /** Size of the buffer used for compression. */
+    private static final int BUFFER = 8192;
+    /** Marks the start of a pack ("PACK"). */
+    private static final int PACK_MAGIC = 0x5041434b;
+    /** Marks the start of a pack index ("PIDX"). */
+    private static final int IDX_MAGIC = 0x50494458;
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 1;
+    /** Size of the index header: magic, version, and count. */
+    private static final int IDX_HEADER = 12;
+    /** Size of an index record: id and offset. */
+    private static final int IDX_RECORD = Utils.UID_BYTES + 8;
+
+    /** Packs found by all(), or null if not yet looked for. */
+    private static List<Pack> _packs;
+    /** Sorted contents of PACKS when _packs was found. */
+    private static String[] _names;
+
+    /** The pack file. */
+    private File _file;
+    /** The pack file, open for reading. */
+    private FileChannel _pack;
+    /** The mapped index. */
+    private ByteBuffer _idx;
+    /** Number of objects in the pack. */
+    private int _count;
+}
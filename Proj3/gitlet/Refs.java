@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The ref database. .gitlet/HEAD holds the name of the current branch,
+ *  and .gitlet/refs holds one small text file per branch containing the
+ *  id of its head commit, so a command reads only the refs it needs.
+ *
+ *  Every ref is written under its LockFile and renamed into place.
+ *  Branches are moved by compare-and-swap: update succeeds only if the
+ *  branch still points where the caller last saw it, so two processes
+ *  committing on one branch at once cannot silently lose a commit.
+ *
+ *  Between defer and flush, as in a batch session, changes are kept in
+ *  memory and seen by every read, and flush then writes only the final
+ *  value of each changed ref, each checked against what was on disk when
+ *  it was first changed.
+ *  @author Theo Joseph
+ */
+class Refs {
+
+    /** Directory holding one file per branch. */
+    static final File REFS = new File("./.gitlet/refs");
+    /** File naming the current branch. */
+    static final File HEAD = new File("./.gitlet/HEAD");
+
+    /** Returns the name of the current branch. */
+    static String current() {
+        if (_current != null) {
+            return _current;
+        }
+        return readText(HEAD);
+    }
+
+    /** Makes BRANCH the current branch. */
+    static void setCurrent(String branch) {
+        if (_pending != null) {
+            _current = branch;
+        } else {
+            writeText(HEAD, branch);
+        }
+    }
+
+    /** Returns the id of the head commit of BRANCH, or null if there is
+     *  no such branch. */
+    static String read(String branch) {
+        if (_pending != null && _pending.containsKey(branch)) {
+            return _pending.get(branch);
+        }
+        File ref = new File(REFS, branch);
+        if (!ref.isFile()) {
+            return null;
+        }
+        return readText(ref);
+    }
+
+    /** Points BRANCH at the commit with id ID, creating it if needed. */
+    static void write(String branch, String id) {
+        if (_pending != null) {
+            _pending.put(branch, id);
+        } else {
+            writeText(new File(REFS, branch), id);
+        }
+    }
+
+    /** Points BRANCH at the commit with id ID, provided it still points
+     *  at the commit with id OLD, or does not exist if OLD is null. Throws
+     *  GitletException if it does not. */
+    static void update(String branch, String old, String id) {
+        update(branch, old, id, () -> { });
+    }
+
+    /** Points BRANCH at the commit with id ID, as update(BRANCH, OLD, ID)
+     *  does, running BEFORE once the branch is locked and found to point
+     *  at OLD, and before it is moved. */
+    static void update(String branch, String old, String id,
+                       Runnable before) {
+        if (_pending != null) {
+            check(branch, old);
+            before.run();
+            defer(branch, old, id);
+            return;
+        }
+        File ref = new File(REFS, branch);
+        try (LockFile lock = new LockFile(ref)) {
+            check(branch, old);
+            before.run();
+            lock.write((id + "\n").getBytes(StandardCharsets.UTF_8));
+            lock.commit();
+        }
+    }
+
+    /** Returns true iff BRANCH exists. */
+    static boolean exists(String branch) {
+        return read(branch) != null;
+    }
+
+    /** Deletes BRANCH, provided it still points at the commit with id
+     *  OLD. Throws GitletException if it does not. */
+    static void delete(String branch, String old) {
+        if (_pending != null) {
+            check(branch, old);
+            defer(branch, old, null);
+            return;
+        }
+        File ref = new File(REFS, branch);
+        LockFile lock = new LockFile(ref);
+        try {
+            check(branch, old);
+            ref.delete();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Throws GitletException unless BRANCH points at the commit with id
+     *  OLD, or does not exist if OLD is null. */
+    private static void check(String branch, String old) {
+        String current = read(branch);
+        if (current == null ? old != null : !current.equals(old)) {
+            throw new GitletException(
+                "Branch " + branch + " was changed by another process;"
+                + " try again.");
+        }
+    }
+
+    /** Returns the names of all branches, in sorted order. */
+    static List<String> names() {
+        List<String> names = Utils.plainFilenamesIn(REFS);
+        if (names == null) {
+            names = new ArrayList<String>();
+        }
+        if (_pending == null) {
+            return names;
+        }
+        TreeSet<String> all = new TreeSet<String>(names);
+        for (Map.Entry<String, String> e : _pending.entrySet()) {
+            if (e.getValue() == null) {
+                all.remove(e.getKey());
+            } else {
+                all.add(e.getKey());
+            }
+        }
+        return new ArrayList<String>(all);
+    }
+
+    /** Keeps all changes to refs in memory until flush. */
+    static void defer() {
+        _pending = new TreeMap<String, String>();
+        _base = new HashMap<String, String>();
+        _current = null;
+    }
+
+    /** Writes the refs changed since defer, then HEAD if it was changed,
+     *  and stops deferring. Throws GitletException, leaving the refs not
+     *  yet written as they are, if another process has moved one of
+     *  them in the meantime. */
+    static void flush() {
+        TreeMap<String, String> pending = _pending;
+        HashMap<String, String> base = _base;
+        String current = _current;
+        _pending = null;
+        _base = null;
+        _current = null;
+        if (pending == null) {
+            return;
+        }
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            String branch = e.getKey(), id = e.getValue();
+            if (!base.containsKey(branch)) {
+                write(branch, id);
+            } else if (id == null) {
+                if (base.get(branch) != null) {
+                    delete(branch, base.get(branch));
+                }
+            } else if (!id.equals(base.get(branch))) {
+                update(branch, base.get(branch), id);
+            }
+        }
+        if (current != null) {
+            setCurrent(current);
+        }
+    }
+
+    /** Drops the changes made since defer and stops deferring. */
+    static void discard() {
+        _pending = null;
+        _base = null;
+        _current = null;
+    }
+
+    /** Notes that BRANCH, which pointed at OLD, now points at ID, or is
+     *  deleted if ID is null. */
+    private static void defer(String branch, String old, String id) {
+        if (!_pending.containsKey(branch)) {
+            _base.put(branch, old);
+        }
+        _pending.put(branch, id);
+    }
+
+    /** Returns the contents of FILE, less its trailing newline. */
+    private static String readText(File file) {
+        return new String(Utils.readContents(file),
+                          StandardCharsets.UTF_8).trim();
+    }
+
+    /** Replaces FILE with one holding TEXT and a newline. */
+    private static void writeText(File file, String text) {
+        try (LockFile lock = new LockFile(file)) {
+            lock.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+            lock.commit();
+        }
+    }
+
+    /** Refs changed since defer, mapped to their new ids, or to null if
+     *  deleted; null when not deferring. */
+    private static TreeMap<String, String> _pending;
+    /** Ids the refs in _pending had on disk before they were changed. */
+    private static HashMap<String, String> _base;
+    /** The current branch, if changed since defer, else null. */
+    private static String _current;
+}
@@ -6,36 +6,25 @@ import java.nio.file.Paths;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.io.File;
-import java.io.Serializable;
 /** A view of a repository. Contains a pointer to the current branch, which
 will keep track of commit trees and whatnot. Also contains a log of all changes
 on all branches.
 >>>>>>> partner/proj3
 @author Andrew Leong & Khalil Joseph
 */
-public class Repo implements Serializable {
+public class Repo {
 
     /** Initializes a .gitlet directory. */
     Repo() {
         try {
             Path director = Paths.get(".", ".gitlet");
             Path mkdir = Files.createDirectory(director);
-            Path staging =
-                Files.createDirectory(Paths.get(".", ".gitlet", "stage"));
-            Path removed =
-                Files.createDirectory(Paths.get(".", ".gitlet", "untracked"));
-            Path untracked =
-                Files.createDirectory(Paths.get(".", ".gitlet", "untold"));
             Path allBranches =
-                Files.createDirectory(Paths.get(".", ".gitlet", "global"));
+                Files.createDirectory(Paths.get(".", ".gitlet", "refs"));
             Path metadata =
                 Files.createDirectory(Paths.get(".", ".gitlet", "metadata"));
-            Path allFiles =
-                Files.createDirectory(Paths.get(".", ".gitlet", "versions"));
-            Path temp =
-                Files.createDirectory(
-                    Paths.get(".", ".gitlet", "versions", "temp"));
-            File master = new File("./.gitlet/global/master.ser");
+            Path objects =
+                Files.createDirectory(Paths.get(".", ".gitlet", "objects"));
             Branch initial = new Branch("master", true);
             initial.store();
         } catch (FileAlreadyExistsException excp) {
@@ -43,24 +32,14 @@ public class Repo implements Serializable {
                 "A gitlet version-control system already exists in the "
                 + "current directory.");
         } catch (IOException e) {
-            System.out.println("I/O troubles; please try again.");
-            System.exit(0);
+            throw new GitletException("I/O troubles; please try again.");
         }
     }
 
     /** Loads an internal repo object to represent the current state
-    of the repository. */
+    of the repository. Reads only HEAD and the current branch's ref. */
     Repo(String dummy) {
-        File global = new File("./.gitlet/global");
-        File[] branches = global.listFiles();
-        for (File b: branches) {
-            Branch br = Main.loadBranch(b);
-            if (br.isCurrent()) {
-                current = br;
-            } else {
-                br.store();
-            }
-        }
+        current = Branch.load(Refs.current());
     }
 
 
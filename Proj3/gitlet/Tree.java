@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Map;
+
+/** A tree manifest: the names of the files tracked by a commit, each
+ *  mapped to the id of the blob holding its contents. Trees live in the
+ *  object store as sorted lines of the form "BLOB NAME", so two commits
+ *  with the same contents share one tree.
+ *  @author Theo Joseph
+ */
+class Tree {
+
+    /** An empty tree. */
+    Tree() {
+        _entries = new TreeMap<String, String>();
+    }
+
+    /** Returns the tree stored in the object store under id ID. */
+    static Tree load(String id) {
+        TreeMap<String, String> entries = TREES.get(id);
+        if (entries == null) {
+            entries = new TreeMap<String, String>();
+            String text =
+                new String(ObjectStore.read(id), StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    entries.put(line.substring(space + 1),
+                                line.substring(0, space));
+                }
+            }
+            TREES.put(id, entries);
+        }
+        Tree tree = new Tree();
+        tree._entries.putAll(entries);
+        return tree;
+    }
+
+    /** Writes this tree to the object store and returns its id. */
+    String store() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> e : _entries.entrySet()) {
+            text.append(e.getValue()).append(' ')
+                .append(e.getKey()).append('\n');
+        }
+        return ObjectStore.put(
+            text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the id of the blob tracked as NAME, or null if NAME is
+     *  not tracked. */
+    String get(String name) {
+        return _entries.get(name);
+    }
+
+    /** Returns true iff NAME is tracked. */
+    boolean contains(String name) {
+        return _entries.containsKey(name);
+    }
+
+    /** Tracks NAME with the contents of the blob with id BLOB. */
+    void put(String name, String blob) {
+        _entries.put(name, blob);
+    }
+
+    /** Stops tracking NAME. */
+    void remove(String name) {
+        _entries.remove(name);
+    }
+
+    /** Returns the names of all tracked files, in sorted order. */
+    Set<String> names() {
+        return _entries.keySet();
+    }
+
+    /** Entries of trees already read, by tree id. */
+    private static final Cache<String, TreeMap<String, String>> TREES =
+        new Cache<String, TreeMap<String, String>>(1 << 20, t -> t.size());
+
+    /** Maps file names to blob ids. */
+    private TreeMap<String, String> _entries;
+}
@@ -28,11 +28,15 @@ public class UnitTest {
         }
         Repo r = new Repo();
         Main.add("add", "eumaeus.txt");
-        File staging = new File("./.gitlet/stage");
-        File[] stage = staging.listFiles();
-        assertTrue(stage.length == 1);
+        Index stage = Index.load();
+        assertEquals(1, stage.paths().size());
+        String blob = stage.get("eumaeus.txt");
         Main.add("add", "eumaeus.txt");
-        assertTrue(stage.length == 1);
+        stage = Index.load();
+        assertEquals(1, stage.paths().size());
+        assertEquals(blob, stage.get("eumaeus.txt"));
+        assertTrue(stage.isUnchanged("eumaeus.txt")
+                   || ObjectStore.contains(blob));
     }
 
     /** Checks that files are being committed. */
@@ -40,21 +44,19 @@ public class UnitTest {
     public void commitTest() {
         Repo r = new Repo("");
         Main.commit("commit", "woo!");
-        File versions = new File("./.gitlet/versions");
-        File[] version = versions.listFiles();
-        assertTrue(version.length == 2);
-        String hashofwoo = r.getCurrent().typableHash();
-        File backup = new File("./.gitlet/versions" + hashofwoo);
-        File[] backupfiles = backup.listFiles();
-        assertTrue(backupfiles.length == 1);
+        String hashofwoo = r.getCurrent().getSHA();
+        Tree backup = Main.treeOf(hashofwoo);
+        assertEquals(1, backup.names().size());
+        assertTrue(ObjectStore.contains(backup.get("eumaeus.txt")));
     }
 
     /** Makes sure untracked files aren't being committed unless
     added, modified, added again, and committed. */
     @Test
     public void breakCommitTest() {
-        File staging = new File("./.gitlet/stage");
-        assertEquals(staging.listFiles().length, 0);
+        Repo r = new Repo("");
+        Tree head = Main.treeOf(r.getCurrent().getSHA());
+        assertTrue(Index.load().matches(head));
     }
 
     /** A dummy test to avoid complaint. */
@@ -3,7 +3,10 @@ package gitlet;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -49,6 +52,73 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, which are read
+     *  through a reusable direct buffer rather than all at once, so that
+     *  the memory used does not grow with the size of FILE. If COPY is
+     *  not null, the contents are also written to it as they are read. */
+    static String sha1(File file, File copy) {
+        ByteBuffer buf = STREAM_BUFFER.get();
+        try (FileChannel in = FileChannel.open(file.toPath());
+             FileChannel out = copy == null ? null
+                 : FileChannel.open(copy.toPath(),
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            buf.clear();
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                if (out != null) {
+                    buf.rewind();
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                }
+                buf.clear();
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Size of the buffers used to stream file contents. */
+    static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+    /** Each thread's buffer for streaming file contents. */
+    private static final ThreadLocal<ByteBuffer> STREAM_BUFFER =
+        ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE));
+
+    /** Number of bytes in a SHA-1 hash. */
+    static final int UID_BYTES = 20;
+
+    /** Returns the hexadecimal string for the bytes of HASH. */
+    static String toHex(byte[] hash) {
+        char[] result = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal string HEX. */
+    static byte[] toBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Digits used by toHex. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
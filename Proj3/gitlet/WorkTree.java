@@ -0,0 +1,238 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** The state of the working directory against the index: which tracked
+ *  files have been modified or deleted, and which files are untracked.
+ *
+ *  The directory is walked in parallel, one fork-join task per
+ *  directory, and every entry is statted exactly once. A tracked file
+ *  whose stat data match its index entry is taken as unchanged without
+ *  being read; any other tracked file is hashed by the task that found
+ *  it, so the cost of a scan is one stat per file plus one read per file
+ *  actually touched. Symbolic links are neither followed nor reported,
+ *  and .gitlet is skipped. With an FsMonitor, only the paths it names
+ *  are examined at all.
+ *  @author Theo Joseph
+ */
+class WorkTree {
+
+    /** Returns the state of the working directory against INDEX. If
+     *  MONITOR is not null and knows which paths may have changed since
+     *  it was last told of a scan, only those are examined, and it is told
+     *  of this one. */
+    static WorkTree scan(Index index, FsMonitor monitor) {
+        WorkTree work = new WorkTree(index);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            if (monitor == null || !monitor.isPartial()) {
+                pool.invoke(work.new Walk(Paths.get("")));
+                work.missing(index.paths());
+            } else {
+                List<Path> changed = new ArrayList<Path>();
+                for (String path : monitor.changed()) {
+                    changed.add(Paths.get(path));
+                }
+                pool.invoke(work.new Batch(changed, 0, changed.size()));
+                for (String path : monitor.changed()) {
+                    work.missing(index.paths().subSet(path, true, path, true));
+                    work.missing(index.paths().subSet(path + "/", path + "0"));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (monitor != null) {
+            List<String> suspects = new ArrayList<String>(work._modified);
+            suspects.addAll(work._deleted);
+            suspects.addAll(work._untracked);
+            monitor.record(suspects);
+        }
+        return work;
+    }
+
+    /** Notes as deleted those of the tracked files PATHS that were not
+     *  found. */
+    private void missing(Collection<String> paths) {
+        for (String path : paths) {
+            if (!_seen.contains(path)) {
+                _deleted.add(path);
+            }
+        }
+    }
+
+    /** A scan against INDEX that has not yet been made. */
+    private WorkTree(Index index) {
+        _index = index;
+        _seen = ConcurrentHashMap.newKeySet(index.paths().size());
+    }
+
+    /** Returns the tracked files whose contents differ from their staged
+     *  blobs, in sorted order. */
+    List<String> modified() {
+        return sorted(_modified);
+    }
+
+    /** Returns the tracked files missing from the working directory, in
+     *  sorted order. */
+    List<String> deleted() {
+        return sorted(_deleted);
+    }
+
+    /** Returns the working files that are not tracked, in sorted
+     *  order. */
+    List<String> untracked() {
+        return sorted(_untracked);
+    }
+
+    /** Returns the tracked files whose stat data no longer match their
+     *  entries but whose contents are unchanged: their entries may be
+     *  refreshed. */
+    List<String> unchanged() {
+        return sorted(_unchanged);
+    }
+
+    /** Returns the elements of PATHS in sorted order. */
+    private static List<String> sorted(Collection<String> paths) {
+        List<String> result = new ArrayList<String>(paths);
+        result.sort(null);
+        return result;
+    }
+
+    /** Notes the working file PATH, whose stat data are ATTRS. */
+    private void found(Path path, Map<String, Object> attrs) {
+        String name = path.toString();
+        String blob = _index.get(name);
+        if (blob == null) {
+            _untracked.add(name);
+            return;
+        }
+        _seen.add(name);
+        if (_index.isUnchanged(name, attrs)) {
+            return;
+        }
+        if (Utils.sha1(path.toFile(), null).equals(blob)) {
+            _unchanged.add(name);
+        } else {
+            _modified.add(name);
+        }
+    }
+
+    /** The scan of one directory. */
+    private class Walk extends RecursiveAction {
+
+        /** The scan of directory DIR, a path relative to the working
+         *  directory. */
+        Walk(Path dir) {
+            _dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<Path> entries = new ArrayList<Path>();
+            Path dir = _dir.toString().isEmpty() ? Paths.get(".") : _dir;
+            try (DirectoryStream<Path> stream =
+                 Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    Path path = _dir.resolve(entry.getFileName());
+                    if (!path.toString().equals(GITLET)) {
+                        entries.add(path);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            new Batch(entries, 0, entries.size()).compute();
+        }
+
+        /** The directory scanned. */
+        private final Path _dir;
+
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** The scan of some of the entries of one directory. Large batches
+     *  are split, so that a directory of many files is statted by many
+     *  threads. */
+    private class Batch extends RecursiveAction {
+
+        /** The scan of ENTRIES[LO..HI). */
+        Batch(List<Path> entries, int lo, int hi) {
+            _entries = entries;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > BATCH) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Batch(_entries, _lo, mid),
+                          new Batch(_entries, mid, _hi));
+                return;
+            }
+            List<Walk> subdirs = new ArrayList<Walk>();
+            for (Path path : _entries.subList(_lo, _hi)) {
+                Map<String, Object> attrs;
+                try {
+                    attrs = Index.attributes(path, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException excp) {
+                    continue;
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                if ((Boolean) attrs.get("isDirectory")) {
+                    subdirs.add(new Walk(path));
+                } else if ((Boolean) attrs.get("isRegularFile")) {
+                    found(path, attrs);
+                }
+            }
+            invokeAll(subdirs);
+        }
+
+        /** The entries of the directory. */
+        private final List<Path> _entries;
+        /** Bounds of the entries scanned. */
+        private final int _lo, _hi;
+
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Largest number of entries statted by one task. */
+    private static final int BATCH = 512;
+    /** Name of the repository directory, which is never scanned. */
+    private static final String GITLET = ".gitlet";
+
+    /** The index scanned against. */
+    private final Index _index;
+    /** Tracked files found in the working directory. */
+    private final Set<String> _seen;
+    /** Tracked files whose contents have changed. */
+    private final Collection<String> _modified =
+        new ConcurrentLinkedQueue<String>();
+    /** Tracked files whose stat data alone have changed. */
+    private final Collection<String> _unchanged =
+        new ConcurrentLinkedQueue<String>();
+    /** Untracked files. */
+    private final Collection<String> _untracked =
+        new ConcurrentLinkedQueue<String>();
+    /** Tracked files not found. */
+    private final Collection<String> _deleted = new ArrayList<String>();
+}